@@ -0,0 +1,47 @@
+package hessian.cqlish.benchmarks;
+
+import hessian.cqlish.CqlishApplication;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * handleSpecialCommands, which every statement goes through: a CQL
+ * statement that is not a shell command (the common case), and PAGING,
+ * which is handled without the node.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandDispatchBenchmark {
+    @Param({"SELECT * FROM ks.kv WHERE k = 1;",
+            "INSERT INTO ks.kv (k, v) VALUES (1, 'a fairly long value that has to be split like the rest');",
+            "PAGING;"})
+    public String statement;
+
+    private CqlishApplication app;
+
+    @Setup
+    public void setup() throws IOException {
+        app = new CqlishApplication(Discard.console());
+    }
+
+    @Benchmark
+    public boolean dispatch() throws IOException {
+        return app.handleSpecialCommands(statement);
+    }
+}
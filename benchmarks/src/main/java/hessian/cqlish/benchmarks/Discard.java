@@ -0,0 +1,51 @@
+package hessian.cqlish.benchmarks;
+
+import jline.UnsupportedTerminal;
+import jline.console.ConsoleReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Output that goes nowhere, so that benchmarks measure formatting and not
+ * the terminal.
+ */
+final class Discard {
+    static final OutputStream OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    static final Writer WRITER = new Writer() {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private Discard() {
+    }
+
+    // a console with no input that throws its output away
+    static ConsoleReader console() throws IOException {
+        return new ConsoleReader(new ByteArrayInputStream(new byte[0]), OUTPUT, new UnsupportedTerminal());
+    }
+}
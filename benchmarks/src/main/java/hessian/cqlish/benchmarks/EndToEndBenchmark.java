@@ -0,0 +1,91 @@
+package hessian.cqlish.benchmarks;
+
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import hessian.cqlish.CqlishApplication;
+import hessian.cqlish.EphemeralMode;
+import hessian.cqlish.MinimalMode;
+import org.cassandraunit.utils.RestartableEmbeddedCassandraServerHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-statement latency against the embedded node, through the shell
+ * (executeAndPrintCql: dispatch, automatic preparing, execution and
+ * printing) and straight through the driver.  The difference is the
+ * client-side overhead every statement pays.  The node runs -minimal and
+ * -ephemeral style, in a tmpfs directory that is removed afterwards.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+    private static final String KEYSPACE = "cqlish_bench";
+    private static final String SELECT = "SELECT * FROM " + KEYSPACE + ".kv WHERE k = 42;";
+    private static final String INSERT = "INSERT INTO " + KEYSPACE + ".kv (k, v) VALUES (42, 'value 42');";
+
+    private File tmpDir;
+    private Session session;
+    private CqlishApplication app;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        MinimalMode.setSystemProperties();
+        tmpDir = EphemeralMode.tmpDir(null);
+        Map<String, String> yamlSettings = new LinkedHashMap<String, String>(MinimalMode.yamlSettings());
+        yamlSettings.putAll(EphemeralMode.yamlSettings(tmpDir));
+        RestartableEmbeddedCassandraServerHelper.startEmbeddedCassandra(RestartableEmbeddedCassandraServerHelper.DEFAULT_CASSANDRA_YML_FILE,
+                tmpDir.getPath(), RestartableEmbeddedCassandraServerHelper.DEFAULT_STARTUP_TIMEOUT, yamlSettings);
+        session = RestartableEmbeddedCassandraServerHelper.getSession();
+        session.execute("CREATE KEYSPACE IF NOT EXISTS " + KEYSPACE + " WITH replication = {'class': 'SimpleStrategy', 'replication_factor': 1} AND durable_writes = false");
+        session.execute("CREATE TABLE IF NOT EXISTS " + KEYSPACE + ".kv (k int PRIMARY KEY, v text)");
+        session.execute(INSERT);
+
+        app = new CqlishApplication(Discard.console());
+        app.connect(session);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        RestartableEmbeddedCassandraServerHelper.abandonEmbeddedCassandra();
+        RestartableEmbeddedCassandraServerHelper.rmdir(tmpDir.getPath());
+    }
+
+    @Benchmark
+    public void shellSelect() throws Exception {
+        app.executeAndPrintCql(session, SELECT);
+    }
+
+    @Benchmark
+    public void shellInsert() throws Exception {
+        app.executeAndPrintCql(session, INSERT);
+    }
+
+    @Benchmark
+    public Object driverSelect() {
+        return session.execute(new SimpleStatement(SELECT)).one();
+    }
+
+    @Benchmark
+    public Object driverInsert() {
+        return session.execute(new SimpleStatement(INSERT)).wasApplied();
+    }
+}
@@ -0,0 +1,115 @@
+package hessian.cqlish.benchmarks;
+
+import hessian.cqlish.CqlishApplication;
+import org.cassandraunit.utils.RestartableEmbeddedCassandraServerHelper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares how long a script load takes with the node on disk and with
+ * -ephemeral.  Each run is a separate cqlish process so each gets a fresh
+ * node; the time is measured from "Processing scriptfile" to "Finished
+ * processing scriptfile" in its output, so startup is not included.  The
+ * processes run in target/ephemeral-bench, and the on-disk runs use -reset
+ * there so that they start from an empty database too.
+ *
+ * Usage: java -cp target/benchmarks.jar hessian.cqlish.benchmarks.EphemeralBenchmark [statements] [async window] [rounds] [-ephemeraldir dir]
+ */
+public class EphemeralBenchmark {
+    private static final String KEYSPACE = "cqlish_bench_ephemeral";
+    private static final File WORK_DIR = new File("target/ephemeral-bench");
+
+    public static void main(String[] args) throws Exception {
+        int statements = (0 < args.length) ? Integer.parseInt(args[0]) : 100000;
+        int window = (1 < args.length) ? Integer.parseInt(args[1]) : CqlishApplication.DEFAULT_ASYNC_WINDOW;
+        int rounds = (2 < args.length) ? Integer.parseInt(args[2]) : 3;
+        List<String> extra = (3 < args.length) ? Arrays.asList(args).subList(3, args.length) : new ArrayList<String>();
+
+        File script = File.createTempFile("cqlish-bench", ".cql");
+        script.deleteOnExit();
+        writeScript(script, statements);
+
+        RestartableEmbeddedCassandraServerHelper.mkdir(WORK_DIR.getPath());
+        long[] disk = new long[rounds];
+        long[] tmpfs = new long[rounds];
+        for (int round = 0; round < rounds; round++) {
+            disk[round] = run(script, window, false, extra);
+            tmpfs[round] = run(script, window, true, extra);
+            System.out.println(String.format("round %d: disk %d ms, ephemeral %d ms", round + 1, disk[round], tmpfs[round]));
+        }
+        System.out.println(String.format("%-10s %12s %16s", "mode", "best(ms)", "statements/sec"));
+        print("disk", disk, statements);
+        print("ephemeral", tmpfs, statements);
+        RestartableEmbeddedCassandraServerHelper.rmdir(WORK_DIR.getPath());
+    }
+
+    private static void writeScript(File script, int statements) throws IOException {
+        try (PrintWriter out = new PrintWriter(script, StandardCharsets.UTF_8.name())) {
+            out.println("DROP KEYSPACE IF EXISTS " + KEYSPACE + ";");
+            out.println("CREATE KEYSPACE " + KEYSPACE + " WITH replication = {'class': 'SimpleStrategy', 'replication_factor': 1};");
+            out.println("CREATE TABLE " + KEYSPACE + ".kv (k int PRIMARY KEY, v text);");
+            for (int k = 0; k < statements; k++)
+                out.println("INSERT INTO " + KEYSPACE + ".kv (k, v) VALUES (" + k + ", 'value " + k + "');");
+        }
+    }
+
+    // returns how long the script took, in ms
+    private static long run(File script, int window, boolean ephemeral, List<String> extra) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<String>(Arrays.asList(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", absoluteClassPath(),
+                CqlishApplication.class.getName(),
+                "-f", script.getAbsolutePath(), "-async", Integer.toString(window),
+                "-daemon", "false"));  // a running daemon would ignore -ephemeral and -reset
+        if (ephemeral) {
+            command.addAll(Arrays.asList("-ephemeral", "true"));
+            command.addAll(extra);
+        }
+        else {
+            command.addAll(Arrays.asList("-reset", "true"));
+        }
+        Process process = new ProcessBuilder(command).directory(WORK_DIR).redirectErrorStream(true).start();
+        process.getOutputStream().close();  // no input, so cqlish exits after the script
+        long begin = -1;
+        long end = -1;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while (null != (line = in.readLine())) {
+                if (line.contains("Processing scriptfile"))
+                    begin = System.currentTimeMillis();
+                else if (line.contains("Finished processing scriptfile"))
+                    end = System.currentTimeMillis();
+            }
+        }
+        process.waitFor();
+        if ((0 > begin) || (0 > end))
+            throw new IllegalStateException("cqlish did not run the script (exit code " + process.exitValue() + ")");
+        return end - begin;
+    }
+
+    // the class path with relative entries made absolute, since the processes run in WORK_DIR
+    private static String absoluteClassPath() {
+        StringBuilder classPath = new StringBuilder();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (0 < classPath.length())
+                classPath.append(File.pathSeparator);
+            classPath.append(new File(entry).getAbsolutePath());
+        }
+        return classPath.toString();
+    }
+
+    private static void print(String mode, long[] millis, int statements) {
+        long best = Long.MAX_VALUE;
+        for (long m : millis)
+            best = Math.min(best, m);
+        System.out.println(String.format("%-10s %12d %16.0f", mode, best, statements * 1000.0 / Math.max(1, best)));
+    }
+}
@@ -0,0 +1,98 @@
+package hessian.cqlish.benchmarks;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import hessian.cqlish.CqlishApplication;
+import hessian.cqlish.InProcessExecutor;
+import hessian.cqlish.PreparedStatementCache;
+import org.cassandraunit.utils.RestartableEmbeddedCassandraServerHelper;
+
+import java.util.Arrays;
+
+/**
+ * Compares per-statement latency of the driver path (plain and with
+ * automatic preparing) with the in-process executor, for small point
+ * reads and single-row writes against the embedded node.
+ *
+ * Usage: java -cp target/benchmarks.jar hessian.cqlish.benchmarks.ExecutorBenchmark [iterations]
+ */
+public class ExecutorBenchmark {
+    private static final String KEYSPACE = "cqlish_bench";
+    private static final int KEYS = 1000;
+
+    private interface Executor {
+        ResultSet execute(String cql);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = (0 < args.length) ? Integer.parseInt(args[0]) : 20000;
+        if (!new CqlishApplication().extractLibs())
+            return;
+        RestartableEmbeddedCassandraServerHelper.startEmbeddedCassandra();
+        Session session = RestartableEmbeddedCassandraServerHelper.getSession();
+        session.execute("CREATE KEYSPACE IF NOT EXISTS " + KEYSPACE + " WITH replication = {'class': 'SimpleStrategy', 'replication_factor': 1}");
+        session.execute("CREATE TABLE IF NOT EXISTS " + KEYSPACE + ".kv (k int PRIMARY KEY, v text)");
+        for (int k = 0; k < KEYS; k++)
+            session.execute("INSERT INTO " + KEYSPACE + ".kv (k, v) VALUES (" + k + ", 'value " + k + "')");
+
+        CodecRegistry codecRegistry = session.getCluster().getConfiguration().getCodecRegistry();
+        PreparedStatementCache preparedCache = new PreparedStatementCache(session, PreparedStatementCache.DEFAULT_CAPACITY);
+        InProcessExecutor inProcess = new InProcessExecutor(codecRegistry,
+                session.getCluster().getConfiguration().getProtocolOptions().getProtocolVersion());
+
+        Executor driver = cql -> session.execute(new SimpleStatement(cql));
+        Executor prepared = cql -> {
+            Statement statement = preparedCache.statementFor(cql);
+            return session.execute((null == statement) ? new SimpleStatement(cql) : statement);
+        };
+        Executor direct = cql -> inProcess.execute(cql, null, CqlishApplication.DEFAULT_FETCH_SIZE);
+
+        System.out.println(String.format("%-12s %-6s %10s %10s %10s %10s", "path", "stmt", "mean(us)", "p50(us)", "p99(us)", "p999(us)"));
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT and is not printed
+            boolean print = (1 == round);
+            run("driver", driver, iterations, print);
+            run("prepared", prepared, iterations, print);
+            run("in-process", direct, iterations, print);
+        }
+        System.exit(0);
+    }
+
+    private static void run(String name, Executor executor, int iterations, boolean print) {
+        long[] reads = new long[iterations];
+        long[] writes = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            int k = i % KEYS;
+            long begin = System.nanoTime();
+            ResultSet resultSet = executor.execute("SELECT k, v FROM " + KEYSPACE + ".kv WHERE k = " + k);
+            for (Row row : resultSet)
+                row.getBytesUnsafe(1);
+            reads[i] = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            executor.execute("INSERT INTO " + KEYSPACE + ".kv (k, v) VALUES (" + k + ", 'value " + i + "')");
+            writes[i] = System.nanoTime() - begin;
+        }
+        if (print) {
+            print(name, "SELECT", reads);
+            print(name, "INSERT", writes);
+        }
+    }
+
+    private static void print(String name, String statement, long[] nanos) {
+        Arrays.sort(nanos);
+        long total = 0;
+        for (long n : nanos)
+            total += n;
+        System.out.println(String.format("%-12s %-6s %10.1f %10.1f %10.1f %10.1f", name, statement,
+                total / 1000.0 / nanos.length, percentile(nanos, 0.5), percentile(nanos, 0.99), percentile(nanos, 0.999)));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int)(p * sorted.length))] / 1000.0;
+    }
+}
@@ -0,0 +1,58 @@
+package hessian.cqlish.benchmarks;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.Row;
+import hessian.cqlish.TablePrinter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting a result for the terminal, as prettyPrint does: the time to
+ * print rows rows of each shape, paged pageSize rows at a time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PrettyPrintBenchmark {
+    @Param({"NARROW_SMALL", "NARROW_LARGE", "WIDE_SMALL", "WIDE_LARGE"})
+    public SyntheticResultSet.Shape shape;
+
+    @Param({"1", "1000"})
+    public int rows;
+
+    @Param({"5000"})
+    public int pageSize;
+
+    private ColumnDefinitions columnDefinitions;
+    private List<Row> data;
+    private TablePrinter printer;
+
+    @Setup
+    public void setup() {
+        columnDefinitions = shape.columnDefinitions();
+        data = shape.rows(columnDefinitions, rows, 42);
+        printer = new TablePrinter(Discard.WRITER, true, CodecRegistry.DEFAULT_INSTANCE, SyntheticResultSet.PROTOCOL_VERSION);
+    }
+
+    @Benchmark
+    public long print() throws IOException {
+        return printer.print(new SyntheticResultSet(columnDefinitions, data, pageSize));
+    }
+}
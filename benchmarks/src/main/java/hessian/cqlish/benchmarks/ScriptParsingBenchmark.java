@@ -0,0 +1,75 @@
+package hessian.cqlish.benchmarks;
+
+import hessian.cqlish.ScriptReader;
+import hessian.cqlish.StatementType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a script file (processScriptFile and SOURCE ASYNC) without
+ * running it: splitting an in-memory script of statements lines into
+ * statements, and also classifying each one as SOURCE ASYNC does.  One
+ * line in ten is a comment or blank.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScriptParsingBenchmark {
+    @Param({"10000"})
+    public int statements;
+
+    private String script;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("CREATE TABLE IF NOT EXISTS ks.kv (k int PRIMARY KEY, v text);\n");
+        for (int i = 0; i < statements; i++) {
+            if (0 == i % 20)
+                sb.append("# rows ").append(i).append(" onwards\n");
+            else if (10 == i % 20)
+                sb.append('\n');
+            sb.append("  INSERT INTO ks.kv (k, v) VALUES (").append(i).append(", 'value ").append(i).append("');\n");
+        }
+        script = sb.toString();
+    }
+
+    @Benchmark
+    public long read() throws IOException {
+        long count = 0;
+        try (ScriptReader in = new ScriptReader(new StringReader(script))) {
+            while (null != in.next())
+                count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public long readAndClassify() throws IOException {
+        long barriers = 0;
+        try (ScriptReader in = new ScriptReader(new StringReader(script))) {
+            String line;
+            while (null != (line = in.next())) {
+                if (StatementType.of(line).isBarrier())
+                    barriers++;
+            }
+        }
+        return barriers;
+    }
+}
@@ -0,0 +1,51 @@
+package hessian.cqlish.benchmarks;
+
+import hessian.cqlish.StatementBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statement accumulation at the prompt (doRepl): the time to collect a
+ * statement typed over lines lines.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StatementBufferBenchmark {
+    @Param({"1", "10", "100"})
+    public int lines;
+
+    private final StatementBuffer buffer = new StatementBuffer();
+    private String[] input;
+
+    @Setup
+    public void setup() {
+        input = new String[lines];
+        for (int i = 0; i < lines - 1; i++)
+            input[i] = "value_" + i + " = 'some text for line " + i + "',";
+        input[lines - 1] = "last = 1;";
+        input[0] = (1 == lines) ? "SELECT * FROM ks.kv WHERE k = 1;" : "UPDATE ks.kv SET";
+    }
+
+    @Benchmark
+    public String accumulate() {
+        String statement = null;
+        for (String line : input)
+            statement = buffer.add(line);
+        return statement;
+    }
+}
@@ -0,0 +1,210 @@
+package hessian.cqlish.benchmarks;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.InProcessRows;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * A ResultSet over rows built in memory, handed out pageSize rows at a
+ * time as the driver would.  The rows are made once by Shape.rows() and
+ * can be shared by many result sets, so creating one allocates almost
+ * nothing.
+ */
+public class SyntheticResultSet implements ResultSet {
+    public static final ProtocolVersion PROTOCOL_VERSION = ProtocolVersion.V4;
+
+    private static final DataType[] TYPES = {
+            DataType.cint(), DataType.text(), DataType.bigint(), DataType.uuid(),
+            DataType.cdouble(), DataType.timestamp(), DataType.cboolean(), DataType.blob()
+    };
+
+    /**
+     * The columns of a result: narrow results have 3 columns and wide ones
+     * 32, cycling through int, text, bigint, uuid, double, timestamp,
+     * boolean and blob.  Small text and blob cells are 8 characters or
+     * bytes, large ones 512.  One cell in 20 (other than the first column)
+     * is null.
+     */
+    public enum Shape {
+        NARROW_SMALL(3, 8), NARROW_LARGE(3, 512), WIDE_SMALL(32, 8), WIDE_LARGE(32, 512);
+
+        public final int columns;
+        public final int cellSize;
+
+        Shape(int columns, int cellSize) {
+            this.columns = columns;
+            this.cellSize = cellSize;
+        }
+
+        public ColumnDefinitions columnDefinitions() {
+            String[] keyspaces = new String[columns];
+            String[] tables = new String[columns];
+            String[] names = new String[columns];
+            DataType[] types = new DataType[columns];
+            for (int i = 0; i < columns; i++) {
+                keyspaces[i] = "bench";
+                tables[i] = name().toLowerCase();
+                types[i] = TYPES[i % TYPES.length];
+                names[i] = types[i].getName().toString() + "_" + i;
+            }
+            return InProcessRows.columnDefinitions(keyspaces, tables, names, types, CodecRegistry.DEFAULT_INSTANCE);
+        }
+
+        public List<Row> rows(ColumnDefinitions definitions, int count, long seed) {
+            Random random = new Random(seed);
+            List<Row> rows = new ArrayList<Row>(count);
+            for (int r = 0; r < count; r++) {
+                List<ByteBuffer> values = new ArrayList<ByteBuffer>(columns);
+                for (int i = 0; i < columns; i++) {
+                    DataType type = definitions.getType(i);
+                    Object value = ((0 < i) && (0 == random.nextInt(20))) ? null : value(type, r, random);
+                    values.add((null == value) ? null : CodecRegistry.DEFAULT_INSTANCE.codecFor(type).serialize(value, PROTOCOL_VERSION));
+                }
+                rows.add(InProcessRows.row(definitions, PROTOCOL_VERSION, values));
+            }
+            return rows;
+        }
+
+        private Object value(DataType type, int row, Random random) {
+            switch (type.getName()) {
+                case INT:
+                    return row;
+                case BIGINT:
+                    return random.nextLong();
+                case TEXT:
+                    char[] chars = new char[cellSize];
+                    for (int i = 0; i < cellSize; i++)
+                        chars[i] = (char)('a' + random.nextInt(26));
+                    return new String(chars);
+                case UUID:
+                    return new UUID(random.nextLong(), random.nextLong());
+                case DOUBLE:
+                    return random.nextDouble();
+                case TIMESTAMP:
+                    return new Date(1500000000000L + random.nextInt());
+                case BOOLEAN:
+                    return random.nextBoolean();
+                default:
+                    byte[] bytes = new byte[cellSize];
+                    random.nextBytes(bytes);
+                    return ByteBuffer.wrap(bytes);
+            }
+        }
+    }
+
+    private final ColumnDefinitions columnDefinitions;
+    private final List<Row> rows;
+    private final int pageSize;
+    private int next = 0;
+    private int pageEnd = 0;
+
+    public SyntheticResultSet(ColumnDefinitions columnDefinitions, List<Row> rows, int pageSize) {
+        this.columnDefinitions = columnDefinitions;
+        this.rows = rows;
+        this.pageSize = pageSize;
+    }
+
+    // moves on to the next page, returning false if there is none
+    private boolean fetchPage() {
+        if (pageEnd >= rows.size())
+            return false;
+        pageEnd = Math.min(rows.size(), pageEnd + pageSize);
+        return true;
+    }
+
+    @Override
+    public Row one() {
+        if (isExhausted())
+            return null;
+        return rows.get(next++);
+    }
+
+    @Override
+    public ColumnDefinitions getColumnDefinitions() {
+        return columnDefinitions;
+    }
+
+    @Override
+    public boolean wasApplied() {
+        return true;
+    }
+
+    @Override
+    public boolean isExhausted() {
+        while (next == pageEnd) {
+            if (!fetchPage())
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isFullyFetched() {
+        return pageEnd == rows.size();
+    }
+
+    @Override
+    public int getAvailableWithoutFetching() {
+        return pageEnd - next;
+    }
+
+    @Override
+    public ListenableFuture<ResultSet> fetchMoreResults() {
+        fetchPage();
+        return Futures.immediateFuture(this);
+    }
+
+    @Override
+    public List<Row> all() {
+        List<Row> all = new ArrayList<Row>();
+        Row row;
+        while (null != (row = one()))
+            all.add(row);
+        return all;
+    }
+
+    @Override
+    public Iterator<Row> iterator() {
+        return new Iterator<Row>() {
+            @Override
+            public boolean hasNext() {
+                return !isExhausted();
+            }
+
+            @Override
+            public Row next() {
+                Row row = one();
+                if (null == row)
+                    throw new NoSuchElementException();
+                return row;
+            }
+        };
+    }
+
+    @Override
+    public ExecutionInfo getExecutionInfo() {
+        return null;
+    }
+
+    @Override
+    public List<ExecutionInfo> getAllExecutionInfo() {
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,23 @@
+package com.datastax.driver.core;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Builds driver ColumnDefinitions and Rows from raw values, for results that
+ * did not come over the native protocol.  Lives in the driver's package
+ * because the constructors it needs are package-private.
+ */
+public class InProcessRows {
+    public static ColumnDefinitions columnDefinitions(String[] keyspaces, String[] tables, String[] names,
+                                                      DataType[] types, CodecRegistry codecRegistry) {
+        ColumnDefinitions.Definition[] definitions = new ColumnDefinitions.Definition[names.length];
+        for (int i = 0; i < names.length; i++)
+            definitions[i] = new ColumnDefinitions.Definition(keyspaces[i], tables[i], names[i], types[i]);
+        return new ColumnDefinitions(definitions, codecRegistry);
+    }
+
+    public static Row row(ColumnDefinitions metadata, ProtocolVersion protocolVersion, List<ByteBuffer> values) {
+        return ArrayBackedRow.fromData(metadata, null, protocolVersion, values);
+    }
+}
@@ -0,0 +1,103 @@
+package hessian.cqlish;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed BENCH command:
+ * BENCH &lt;iterations&gt; [CONCURRENCY n] [RATE r] &lt;statement&gt;
+ * Each ? in the statement may be followed by a generator spec in braces,
+ * e.g. ?{int 1000} or ?{text 32} (see ValueGenerator); the specs are
+ * removed from cql and a plain ? has a null spec.
+ */
+public class BenchCommand {
+    private static final Pattern BENCH_PATTERN = Pattern.compile(
+            "^BENCH\\s+(\\d+)((?:\\s+(?:CONCURRENCY|RATE)\\s+\\d+)*)\\s+(.+)$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern OPTION_PATTERN = Pattern.compile("(CONCURRENCY|RATE)\\s+(\\d+)", Pattern.CASE_INSENSITIVE);
+
+    public final long iterations;
+    public final int concurrency;
+    public final int rate;
+    public final String cql;
+    public final List<String> specs;
+
+    private BenchCommand(long iterations, int concurrency, int rate, String cql, List<String> specs) {
+        this.iterations = iterations;
+        this.concurrency = concurrency;
+        this.rate = rate;
+        this.cql = cql;
+        this.specs = specs;
+    }
+
+    /**
+     * Parses input (without the trailing semicolon).  Returns null if it is
+     * not a valid BENCH command.  Without RATE the concurrency defaults to
+     * 1; with RATE it defaults to maxInFlight.
+     */
+    public static BenchCommand parse(String input, int maxInFlight) {
+        Matcher m = BENCH_PATTERN.matcher(input.trim());
+        if (!m.matches())
+            return null;
+        long iterations;
+        int concurrency = 0;
+        int rate = 0;
+        try {
+            iterations = Long.parseLong(m.group(1));
+            Matcher om = OPTION_PATTERN.matcher(m.group(2));
+            while (om.find()) {
+                if (om.group(1).equalsIgnoreCase("concurrency"))
+                    concurrency = Integer.parseInt(om.group(2));
+                else
+                    rate = Integer.parseInt(om.group(2));
+            }
+        }
+        catch (NumberFormatException nfe) {
+            return null;
+        }
+        if ((0 >= iterations) || (0 > concurrency) || (0 > rate))
+            return null;
+        if (0 == concurrency)
+            concurrency = (0 < rate) ? maxInFlight : 1;
+
+        List<String> specs = new ArrayList<String>();
+        String cql = extractSpecs(m.group(3).trim(), specs);
+        if (null == cql)
+            return null;
+        return new BenchCommand(iterations, concurrency, rate, cql, Collections.unmodifiableList(specs));
+    }
+
+    // removes the {spec} after each bind marker, adding it (or null) to specs;
+    // returns null if a spec is not closed
+    private static String extractSpecs(String statement, List<String> specs) {
+        StringBuilder cql = new StringBuilder(statement.length());
+        char quote = 0;
+        for (int i = 0; i < statement.length(); i++) {
+            char c = statement.charAt(i);
+            cql.append(c);
+            if (0 != quote) {
+                if (c == quote)
+                    quote = 0;
+            }
+            else if (('\'' == c) || ('"' == c)) {
+                quote = c;
+            }
+            else if ('?' == c) {
+                if ((i + 1 < statement.length()) && ('{' == statement.charAt(i + 1))) {
+                    int close = statement.indexOf('}', i + 2);
+                    if (0 > close)
+                        return null;
+                    specs.add(statement.substring(i + 2, close).trim());
+                    i = close;
+                }
+                else {
+                    specs.add(null);
+                }
+            }
+        }
+        return cql.toString();
+    }
+}
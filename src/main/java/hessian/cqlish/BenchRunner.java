@@ -0,0 +1,220 @@
+package hessian.cqlish;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * BENCH: prepares a statement and runs it iterations times with executeAsync,
+ * filling the bind markers from ValueGenerators, and reports the latency
+ * percentiles and throughput.
+ *
+ * Without RATE the run is a closed loop: CONCURRENCY requests are kept in
+ * flight and the latency is each request's service time.  With RATE request
+ * i is due at start + i / rate; the response time is measured from when it
+ * was due, not from when it was sent, so a stall that holds back later
+ * requests shows up in their latency (coordinated omission correction).
+ * Both are reported in rate mode.
+ */
+public class BenchRunner {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+    public static final int MAX_PRINTED_ERRORS = 10;
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final double NANOS_PER_MS = 1000000.0;
+
+    private final CqlishApplication app;
+    private final Session session;
+    private final BenchCommand command;
+    private final Recorder serviceRecorder = new Recorder(SIGNIFICANT_DIGITS);
+    private final Recorder responseRecorder = new Recorder(SIGNIFICANT_DIGITS);
+    private final AtomicLong succeeded = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final Queue<String> errors = new ConcurrentLinkedQueue<String>();
+
+    public BenchRunner(CqlishApplication app, Session session, BenchCommand command) {
+        this.app = app;
+        this.session = session;
+        this.command = command;
+    }
+
+    public boolean run() throws IOException {
+        PreparedStatement prepared;
+        try {
+            prepared = session.prepare(command.cql);
+        }
+        catch (DriverException de) {
+            app.println(CqlishApplication.ANSI_RED, "ERROR: could not prepare " + command.cql + ": " + de.getMessage());
+            return false;
+        }
+        ColumnDefinitions variables = prepared.getVariables();
+        if (variables.size() != command.specs.size()) {
+            app.println(CqlishApplication.ANSI_RED, "ERROR: only ? bind markers are supported (found " + command.specs.size()
+                    + " of " + variables.size() + ")");
+            return false;
+        }
+        ValueGenerator[] generators = new ValueGenerator[variables.size()];
+        DataType[] types = new DataType[variables.size()];
+        long seed = System.nanoTime();
+        StringBuilder described = new StringBuilder();
+        for (int i = 0; i < generators.length; i++) {
+            types[i] = variables.getType(i);
+            String spec = command.specs.get(i);
+            generators[i] = (null == spec) ? ValueGenerator.forType(types[i], seed + i) : ValueGenerator.parse(spec, seed + i);
+            if (null == generators[i]) {
+                app.println(CqlishApplication.ANSI_RED, "ERROR: no generator for " + variables.getName(i) + " (" + types[i] + ")"
+                        + ((null == spec) ? "; give one with ?{seq|int [bound]|uuid|text [length]}" : ": " + spec));
+                return false;
+            }
+            described.append((0 == i) ? "" : ", ").append(variables.getName(i)).append(" = ").append(generators[i]);
+        }
+        app.println(CqlishApplication.ANSI_YELLOW, String.format("  %d iterations, concurrency %d%s; %s",
+                command.iterations, command.concurrency, (0 < command.rate) ? ", rate " + command.rate + "/sec" : "",
+                (0 == generators.length) ? "no bind markers" : described.toString()));
+
+        CodecRegistry codecRegistry = session.getCluster().getConfiguration().getCodecRegistry();
+        Semaphore permits = new Semaphore(command.concurrency);
+        Histogram intervalHistogram = null;
+        Histogram service = null;
+        Histogram response = null;
+        long begin = System.nanoTime();
+        long nextProgress = begin + CqlishApplication.PROGRESS_INTERVAL_MS * 1000000;
+        try {
+            for (long i = 0; i < command.iterations; i++) {
+                final long due = (0 < command.rate) ? begin + (long)(i * 1e9 / command.rate) : 0;
+                long wait;
+                while ((0 < command.rate) && (0 < (wait = due - System.nanoTime())))
+                    LockSupport.parkNanos(wait);
+                permits.acquire();
+                BoundStatement statement;
+                try {
+                    statement = prepared.bind();
+                    for (int v = 0; v < generators.length; v++) {
+                        Object value = ValueGenerator.convert(generators[v].next(i), types[v]);
+                        statement.set(v, value, codecRegistry.codecFor(types[v], value));
+                    }
+                }
+                catch (RuntimeException re) {
+                    permits.release();
+                    fail(re);
+                    continue;
+                }
+                send(statement, due, permits);
+
+                long now = System.nanoTime();
+                if (now >= nextProgress) {
+                    intervalHistogram = serviceRecorder.getIntervalHistogram(intervalHistogram);
+                    service = accumulate(service, intervalHistogram);
+                    app.println(CqlishApplication.ANSI_YELLOW, String.format("  %d ops, %.0f ops/sec, p99 %.3f ms (last %d s), %d errors",
+                            succeeded.get() + failed.get(), (succeeded.get() + failed.get()) * 1e9 / (now - begin),
+                            intervalHistogram.getValueAtPercentile(99) / NANOS_PER_MS,
+                            CqlishApplication.PROGRESS_INTERVAL_MS / 1000, failed.get()));
+                    printErrors();
+                    nextProgress = now + CqlishApplication.PROGRESS_INTERVAL_MS * 1000000;
+                }
+            }
+            permits.acquire(command.concurrency);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            app.println(CqlishApplication.ANSI_RED, "ERROR: interrupted");
+            return false;
+        }
+        long elapsed = Math.max(1, System.nanoTime() - begin);
+        service = accumulate(service, serviceRecorder.getIntervalHistogram());
+        response = responseRecorder.getIntervalHistogram();
+        printErrors();
+
+        long ops = succeeded.get() + failed.get();
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("  %d ops in %.0f ms, %.0f ops/sec, %d errors%n", ops, elapsed / NANOS_PER_MS, ops * 1e9 / elapsed, failed.get()));
+        report.append(String.format("  %-16s %9s %9s %9s %9s %9s %9s%n", "latency (ms)", "mean", "p50", "p95", "p99", "p99.9", "max"));
+        report.append(row("service time", service));
+        if (0 < command.rate)
+            report.append(row("response time", response));
+        app.println(CqlishApplication.ANSI_YELLOW, report.toString());
+        return true;
+    }
+
+    private void send(BoundStatement statement, final long due, final Semaphore permits) {
+        final long sent = System.nanoTime();
+        ResultSetFuture future;
+        try {
+            future = session.executeAsync(statement);
+        }
+        catch (RuntimeException re) {
+            permits.release();
+            fail(re);
+            return;
+        }
+        Futures.addCallback(future, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet resultSet) {
+                record(sent, due);
+                succeeded.incrementAndGet();
+                permits.release();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                record(sent, due);
+                fail(t);
+                permits.release();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void record(long sent, long due) {
+        long done = System.nanoTime();
+        serviceRecorder.recordValue(done - sent);
+        if (0 < command.rate)
+            responseRecorder.recordValue(done - due);
+    }
+
+    private void fail(Throwable t) {
+        if (MAX_PRINTED_ERRORS > failed.getAndIncrement())
+            errors.add(t.getMessage());
+    }
+
+    private void printErrors() throws IOException {
+        String error;
+        while (null != (error = errors.poll()))
+            app.println(CqlishApplication.ANSI_RED, "ERROR: " + error);
+    }
+
+    private static Histogram accumulate(Histogram total, Histogram interval) {
+        if (null == total)
+            return interval.copy();
+        total.add(interval);
+        return total;
+    }
+
+    private static String row(String name, Histogram h) {
+        if (0 == h.getTotalCount())
+            return String.format("  %-16s %9s%n", name, "n/a");
+        return String.format("  %-16s %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f%n", name,
+                h.getMean() / NANOS_PER_MS,
+                h.getValueAtPercentile(50) / NANOS_PER_MS,
+                h.getValueAtPercentile(95) / NANOS_PER_MS,
+                h.getValueAtPercentile(99) / NANOS_PER_MS,
+                h.getValueAtPercentile(99.9) / NANOS_PER_MS,
+                h.getMaxValue() / NANOS_PER_MS);
+    }
+}
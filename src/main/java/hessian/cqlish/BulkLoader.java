@@ -0,0 +1,146 @@
+package hessian.cqlish;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnMetadata;
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TableMetadata;
+import com.datastax.driver.core.exceptions.InvalidTypeException;
+import org.apache.cassandra.io.sstable.CQLSSTableWriter;
+import org.cassandraunit.utils.RestartableEmbeddedCassandraServerHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BULKLOAD: loads a CSV file by writing SSTables directly, without going
+ * through the native protocol, the commit log or the memtables.
+ * Parsing is shared with COPY FROM; each worker thread writes its rows with
+ * its own CQLSSTableWriter into its own staging directory, and when the file
+ * is done the staged SSTables are moved into the table's data directory and
+ * loaded into the running node.
+ *
+ * Only the embedded node sees the data, and materialized views are not
+ * updated.
+ */
+public class BulkLoader extends CsvLoader {
+    public static final int DEFAULT_BUFFER_SIZE_MB = 64;
+
+    private final int bufferSizeMB;
+    private final AtomicLong rowsWritten = new AtomicLong(0);
+    private final List<CQLSSTableWriter> writers = new ArrayList<CQLSSTableWriter>();
+    private final List<File> stagingDirs = new ArrayList<File>();
+    private ThreadLocal<CQLSSTableWriter> writer;
+    private String keyspace;
+    private String table;
+    private String schema;
+    private String insert;
+    private FieldParser[] parsers;
+    private ProtocolVersion protocolVersion;
+    private File stagingRoot;
+
+    public BulkLoader(CqlishApplication app, Session session, CopyCommand command) {
+        super(app, session, command);
+        this.bufferSizeMB = Math.max(1, command.intOption("BUFFERSIZE", DEFAULT_BUFFER_SIZE_MB));
+    }
+
+    @Override
+    protected boolean prepare() throws IOException {
+        TableMetadata tm = tableMetadata();
+        if (null == tm)
+            return false;
+
+        keyspace = tm.getKeyspace().getName();
+        table = tm.getName();
+        schema = tm.asCQLQuery();
+        List<String> columns = columns(tm);
+        insert = insertStatement(Metadata.quoteIfNecessary(keyspace) + "." + Metadata.quoteIfNecessary(table), columns);
+        CodecRegistry codecRegistry = session.getCluster().getConfiguration().getCodecRegistry();
+        protocolVersion = session.getCluster().getConfiguration().getProtocolOptions().getProtocolVersion();
+        parsers = new FieldParser[columns.size()];
+        for (int i = 0; i < parsers.length; i++) {
+            ColumnMetadata cm = tm.getColumn(columns.get(i));
+            if (null == cm) {
+                app.println(CqlishApplication.ANSI_RED, "ERROR: unknown column " + columns.get(i) + " in " + command.qualifiedTable());
+                return false;
+            }
+            parsers[i] = new FieldParser(cm.getType(), codecRegistry);
+        }
+
+        stagingRoot = new File(stagingDir() + File.separator + keyspace + File.separator + table);
+        RestartableEmbeddedCassandraServerHelper.rmdir(stagingRoot.getPath());
+        writer = ThreadLocal.withInitial(this::newWriter);
+        return true;
+    }
+
+    // next to the data directory, so that the staged SSTables can be renamed into it
+    public static String stagingDir() {
+        return RestartableEmbeddedCassandraServerHelper.getTmpDir() + File.separator + "staging";
+    }
+
+    // one writer per worker thread; CQLSSTableWriter is not thread safe
+    private CQLSSTableWriter newWriter() {
+        synchronized (writers) {
+            File dir = new File(stagingRoot, Integer.toString(writers.size()));
+            RestartableEmbeddedCassandraServerHelper.mkdir(dir.getPath());
+            CQLSSTableWriter w = CQLSSTableWriter.builder()
+                    .inDirectory(dir)
+                    .forTable(schema)
+                    .using(insert)
+                    .withBufferSizeInMB(bufferSizeMB)
+                    .build();
+            writers.add(w);
+            stagingDirs.add(dir);
+            return w;
+        }
+    }
+
+    @Override
+    protected void loadRow(String[] fields, long line) {
+        if (fields.length != parsers.length) {
+            reject(line, fields, "expected " + parsers.length + " fields but found " + fields.length);
+            return;
+        }
+        ByteBuffer[] values = new ByteBuffer[fields.length];
+        try {
+            for (int i = 0; i < fields.length; i++)
+                values[i] = parsers[i].serialize(fields[i], protocolVersion);
+            writer.get().rawAddRow(Arrays.asList(values));
+            rowsWritten.incrementAndGet();
+        }
+        catch (InvalidTypeException | IOException | org.apache.cassandra.exceptions.InvalidRequestException e) {
+            reject(line, fields, e.getMessage());
+        }
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        long begin = System.currentTimeMillis();
+        synchronized (writers) {
+            for (CQLSSTableWriter w : writers)
+                w.close();
+        }
+        long flushed = System.currentTimeMillis();
+        int sstables;
+        try {
+            sstables = RestartableEmbeddedCassandraServerHelper.importSSTables(keyspace, table, stagingDirs);
+        }
+        finally {
+            RestartableEmbeddedCassandraServerHelper.rmdir(stagingRoot.getPath());
+        }
+        long imported = System.currentTimeMillis();
+        app.println(CqlishApplication.ANSI_YELLOW, String.format("  flushed staged SSTables in %d ms, loaded %d SSTables into %s in %d ms",
+                flushed - begin, sstables, command.qualifiedTable(), imported - flushed));
+    }
+
+    @Override
+    protected long loaded() {
+        return rowsWritten.get();
+    }
+}
@@ -0,0 +1,55 @@
+package hessian.cqlish;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.ResultSet;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * CAPTURE: results appended to a file, through a ChannelWriter on its
+ * FileChannel, instead of printed.  Only a summary of each result goes to
+ * the terminal.  Foreground and background statements may both write, so
+ * a result is written whole before the next one starts.
+ */
+public class Capture implements Closeable {
+    public final File file;
+    public final ResultWriter.Format format;
+
+    private final ChannelWriter out;
+    private final ResultWriter writer;
+
+    private Capture(File file, ResultWriter.Format format, ChannelWriter out, ResultWriter writer) {
+        this.file = file;
+        this.format = format;
+        this.out = out;
+        this.writer = writer;
+    }
+
+    public static Capture open(File file, ResultWriter.Format format, CodecRegistry codecRegistry, ProtocolVersion protocolVersion) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        ChannelWriter out = new ChannelWriter(channel);
+        return new Capture(file, format, out, new ResultWriter(out, format, codecRegistry, protocolVersion));
+    }
+
+    /**
+     * Writes the rows of resultSet and returns a summary of what was written.
+     */
+    public synchronized String write(ResultSet resultSet) throws IOException {
+        long begin = System.nanoTime();
+        long bytesBefore = out.getBytesWritten();
+        long rows = writer.write(resultSet);
+        double seconds = Math.max(1, System.nanoTime() - begin) / 1e9;
+        return String.format("Captured %d rows (%d bytes) to %s in %.3f s, %.0f rows/sec",
+                rows, out.getBytesWritten() - bytesBefore, file, seconds, rows / seconds);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
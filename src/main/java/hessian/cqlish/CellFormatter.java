@@ -0,0 +1,173 @@
+package hessian.cqlish;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.TypeCodec;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Formats the serialized value of one column into a StringBuilder.
+ * One formatter is chosen per column for a whole result set, so the codec
+ * lookup happens once instead of once per cell.  The common types are written
+ * straight from the bytes without building intermediate Strings.
+ * Output matches TypeCodec.format(), except that text can be left unquoted.
+ */
+public abstract class CellFormatter {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Appends the formatted value to sb.  bytes is never null and its
+     * position is left untouched.
+     */
+    public abstract void format(ByteBuffer bytes, StringBuilder sb);
+
+    public static CellFormatter[] forColumns(ColumnDefinitions cdefs, CodecRegistry codecRegistry, ProtocolVersion protocolVersion) {
+        return forColumns(cdefs, codecRegistry, protocolVersion, true);
+    }
+
+    public static CellFormatter[] forColumns(ColumnDefinitions cdefs, CodecRegistry codecRegistry, ProtocolVersion protocolVersion, boolean quoteText) {
+        List<ColumnDefinitions.Definition> defs = cdefs.asList();
+        CellFormatter[] formatters = new CellFormatter[defs.size()];
+        for (int i = 0; i < formatters.length; i++)
+            formatters[i] = forType(defs.get(i).getType(), codecRegistry, protocolVersion, quoteText);
+        return formatters;
+    }
+
+    public static CellFormatter forType(DataType type, CodecRegistry codecRegistry, ProtocolVersion protocolVersion) {
+        return forType(type, codecRegistry, protocolVersion, true);
+    }
+
+    public static CellFormatter forType(DataType type, CodecRegistry codecRegistry, ProtocolVersion protocolVersion, boolean quoteText) {
+        switch (type.getName()) {
+            case INT:
+                return INT;
+            case BIGINT:
+            case COUNTER:
+            case TIMESTAMP:
+                return BIGINT;
+            case TEXT:
+            case VARCHAR:
+            case ASCII:
+                return quoteText ? TEXT : RAW_TEXT;
+            case UUID:
+            case TIMEUUID:
+                return UUID;
+            default:
+                return new CodecFormatter(codecRegistry.codecFor(type), protocolVersion);
+        }
+    }
+
+    public static final CellFormatter INT = new CellFormatter() {
+        @Override
+        public void format(ByteBuffer bytes, StringBuilder sb) {
+            if (isEmpty(bytes, sb))
+                return;
+            sb.append(bytes.getInt(bytes.position()));
+        }
+    };
+
+    // bigint, counter and timestamp all format as the raw long value
+    public static final CellFormatter BIGINT = new CellFormatter() {
+        @Override
+        public void format(ByteBuffer bytes, StringBuilder sb) {
+            if (isEmpty(bytes, sb))
+                return;
+            sb.append(bytes.getLong(bytes.position()));
+        }
+    };
+
+    // quoted like TypeCodec.format(), with embedded quotes doubled
+    public static final CellFormatter TEXT = new CellFormatter() {
+        @Override
+        public void format(ByteBuffer bytes, StringBuilder sb) {
+            sb.append('\'');
+            appendUtf8(bytes, sb, true);
+            sb.append('\'');
+        }
+    };
+
+    public static final CellFormatter RAW_TEXT = new CellFormatter() {
+        @Override
+        public void format(ByteBuffer bytes, StringBuilder sb) {
+            appendUtf8(bytes, sb, false);
+        }
+    };
+
+    private static void appendUtf8(ByteBuffer bytes, StringBuilder sb, boolean doubleQuotes) {
+        int i = bytes.position();
+        int limit = bytes.limit();
+        while (i < limit) {
+            int b = bytes.get(i++);
+            int cp;
+            if (b >= 0) {
+                cp = b;
+            }
+            else if ((b & 0xE0) == 0xC0 && i < limit) {
+                cp = ((b & 0x1F) << 6) | (bytes.get(i++) & 0x3F);
+            }
+            else if ((b & 0xF0) == 0xE0 && i + 1 < limit) {
+                cp = ((b & 0x0F) << 12) | ((bytes.get(i++) & 0x3F) << 6) | (bytes.get(i++) & 0x3F);
+            }
+            else if ((b & 0xF8) == 0xF0 && i + 2 < limit) {
+                cp = ((b & 0x07) << 18) | ((bytes.get(i++) & 0x3F) << 12) | ((bytes.get(i++) & 0x3F) << 6) | (bytes.get(i++) & 0x3F);
+            }
+            else {
+                cp = '\uFFFD';
+            }
+            if (doubleQuotes && ('\'' == cp))
+                sb.append('\'');
+            sb.appendCodePoint(cp);
+        }
+    }
+
+    public static final CellFormatter UUID = new CellFormatter() {
+        @Override
+        public void format(ByteBuffer bytes, StringBuilder sb) {
+            if (isEmpty(bytes, sb))
+                return;
+            long msb = bytes.getLong(bytes.position());
+            long lsb = bytes.getLong(bytes.position() + 8);
+            hex(msb >>> 32, 8, sb);
+            sb.append('-');
+            hex(msb >>> 16, 4, sb);
+            sb.append('-');
+            hex(msb, 4, sb);
+            sb.append('-');
+            hex(lsb >>> 48, 4, sb);
+            sb.append('-');
+            hex(lsb, 12, sb);
+        }
+    };
+
+    // zero-length values of fixed-size types deserialize to null
+    private static boolean isEmpty(ByteBuffer bytes, StringBuilder sb) {
+        if (bytes.hasRemaining())
+            return false;
+        sb.append("NULL");
+        return true;
+    }
+
+    private static void hex(long value, int digits, StringBuilder sb) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4)
+            sb.append(HEX[(int)(value >>> shift) & 0xF]);
+    }
+
+    private static class CodecFormatter extends CellFormatter {
+        private final TypeCodec<Object> codec;
+        private final ProtocolVersion protocolVersion;
+
+        CodecFormatter(TypeCodec<Object> codec, ProtocolVersion protocolVersion) {
+            this.codec = codec;
+            this.protocolVersion = protocolVersion;
+        }
+
+        @Override
+        public void format(ByteBuffer bytes, StringBuilder sb) {
+            sb.append(codec.format(codec.deserialize(bytes.duplicate(), protocolVersion)));
+        }
+    }
+}
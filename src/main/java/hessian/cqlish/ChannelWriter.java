@@ -0,0 +1,114 @@
+package hessian.cqlish;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A Writer that encodes to UTF-8 into a large buffer and writes it to a
+ * channel only when the buffer fills or on flush(), so a caller that
+ * flushes once per page of results makes one write per page.
+ */
+public class ChannelWriter extends Writer {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private final WritableByteChannel channel;
+    private final CharBuffer chars;
+    private final ByteBuffer bytes;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private long bytesWritten = 0;
+
+    public ChannelWriter(WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ChannelWriter(WritableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.chars = CharBuffer.allocate(bufferSize / 4);
+        this.bytes = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * A writer on standard output; closing it closes standard output.
+     */
+    public static ChannelWriter stdout() {
+        return new ChannelWriter(new FileOutputStream(FileDescriptor.out).getChannel());
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        while (0 < len) {
+            if (!chars.hasRemaining())
+                encode(false);
+            int n = Math.min(len, chars.remaining());
+            chars.put(cbuf, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        while (0 < len) {
+            if (!chars.hasRemaining())
+                encode(false);
+            int n = Math.min(len, chars.remaining());
+            chars.put(str, off, off + n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (!chars.hasRemaining())
+            encode(false);
+        chars.put((char)c);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        encode(true);
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    // moves the chars into bytes, writing bytes out whenever they fill
+    private void encode(boolean all) throws IOException {
+        chars.flip();
+        while (encoder.encode(chars, bytes, false).isOverflow())
+            drain();
+        // a lone high surrogate at the end waits for its pair, unless this is a flush
+        if (all && chars.hasRemaining()) {
+            while (encoder.encode(chars, bytes, true).isOverflow())
+                drain();
+            encoder.reset();
+        }
+        chars.compact();
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining())
+            bytesWritten += channel.write(bytes);
+        bytes.clear();
+    }
+}
@@ -0,0 +1,80 @@
+package hessian.cqlish;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Times the commit log replay at startup by listening to the commit log's
+ * messages.  The replay is timed from the replayer's "Global replay position"
+ * message, after the tables have been opened, to "Log replay complete, N
+ * replayed mutations".  These messages are not shown; errors still go to the
+ * root logger's appenders.
+ */
+public class CommitLogReplayTimer extends AppenderBase<ILoggingEvent> {
+    private static final String COMMIT_LOG_LOGGER = "org.apache.cassandra.db.commitlog.CommitLog";
+    private static final String REPLAYER_LOGGER = "org.apache.cassandra.db.commitlog.CommitLogReplayer";
+
+    // the commit log may be replayed more than once while starting, so the totals are summed
+    private long replayStart = 0;
+    private volatile long replayMillis = 0;
+    private volatile long mutations = 0;
+    private volatile int segments = 0;
+
+    /**
+     * Starts listening.  Must be called before Cassandra starts.
+     */
+    public static CommitLogReplayTimer install() {
+        CommitLogReplayTimer timer = new CommitLogReplayTimer();
+        Logger logger = (Logger)LoggerFactory.getLogger(COMMIT_LOG_LOGGER);
+        timer.setContext(logger.getLoggerContext());
+        timer.setName("commitlog-replay-timer");
+        timer.start();
+        listen(logger, Level.INFO, timer);
+        listen((Logger)LoggerFactory.getLogger(REPLAYER_LOGGER), Level.DEBUG, timer);
+        return timer;
+    }
+
+    private static void listen(Logger logger, Level level, CommitLogReplayTimer timer) {
+        logger.setLevel(level);
+        logger.setAdditive(false);
+        logger.addAppender(timer);
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        String message = event.getMessage();
+        Object[] args = event.getArgumentArray();
+        if (message.startsWith("Replaying ")) {
+            if ((null != args) && (0 < args.length))
+                segments += args[0].toString().split(", ").length;
+        }
+        else if (message.startsWith("Global replay position")) {
+            replayStart = event.getTimeStamp();
+        }
+        else if (message.startsWith("Log replay complete")) {
+            replayMillis += event.getTimeStamp() - replayStart;
+            if ((null != args) && (0 < args.length))
+                mutations += Long.parseLong(args[0].toString());
+        }
+        if (event.getLevel().isGreaterOrEqual(Level.ERROR))
+            ((Logger)LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).callAppenders(event);
+    }
+
+    /**
+     * Returns how long the replay took, or 0 if there was nothing to replay.
+     */
+    public long getReplayMillis() {
+        return replayMillis;
+    }
+
+    public long getMutations() {
+        return mutations;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+}
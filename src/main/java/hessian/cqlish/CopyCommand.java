@@ -0,0 +1,128 @@
+package hessian.cqlish;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed COPY (or BULKLOAD) command:
+ * COPY [keyspace.]table [(col, ...)] FROM|TO 'file' [WITH option = value [AND option = value ...]]
+ * Identifiers are kept as written, quotes included; option names are upper-cased.
+ */
+public class CopyCommand {
+    private static final Pattern COPY_PATTERN = Pattern.compile(
+            "^(?:COPY|BULKLOAD)\\s+([\\w\"]+(?:\\.[\\w\"]+)?)\\s*(?:\\(([^)]*)\\))?\\s*(FROM|TO)\\s+('[^']*'|\"[^\"]*\"|\\S+)(?:\\s+WITH\\s+(.*))?$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern OPTION_PATTERN = Pattern.compile(
+            "^(\\w+)\\s*=\\s*('[^']*'|\"[^\"]*\"|\\S+)$", Pattern.DOTALL);
+    // options read with intOption(), checked when parsed
+    private static final Set<String> INT_OPTIONS = new HashSet<String>(Arrays.asList(
+            "NUMPROCESSES", "MAXINFLIGHT", "PAGESIZE", "BUFFERSIZE"));
+
+    public final String keyspace;
+    public final String table;
+    public final List<String> columns;
+    public final boolean from;
+    public final String file;
+    public final Map<String, String> options;
+
+    private CopyCommand(String keyspace, String table, List<String> columns, boolean from, String file, Map<String, String> options) {
+        this.keyspace = keyspace;
+        this.table = table;
+        this.columns = columns;
+        this.from = from;
+        this.file = file;
+        this.options = options;
+    }
+
+    /**
+     * Parses input (without the trailing semicolon).  Returns null if it is
+     * not a valid COPY or BULKLOAD command.  defaultKeyspace is used when
+     * the table is not qualified.
+     */
+    public static CopyCommand parse(String input, String defaultKeyspace) {
+        Matcher m = COPY_PATTERN.matcher(input.trim());
+        if (!m.matches())
+            return null;
+
+        String keyspace = defaultKeyspace;
+        String table = m.group(1);
+        int dot = table.indexOf('.');
+        if (0 <= dot) {
+            keyspace = table.substring(0, dot);
+            table = table.substring(dot + 1);
+        }
+        if (null == keyspace)
+            return null;
+
+        List<String> columns = new ArrayList<String>();
+        if (null != m.group(2)) {
+            for (String column : m.group(2).split(",")) {
+                column = column.trim();
+                if (column.isEmpty())
+                    return null;
+                columns.add(column);
+            }
+        }
+
+        Map<String, String> options = new HashMap<String, String>();
+        if (null != m.group(5)) {
+            for (String option : m.group(5).trim().split("(?i)\\s+AND\\s+")) {
+                Matcher om = OPTION_PATTERN.matcher(option.trim());
+                if (!om.matches())
+                    return null;
+                String name = om.group(1).toUpperCase();
+                String value = unescape(unquote(om.group(2)));
+                if (INT_OPTIONS.contains(name) && !value.matches("\\d{1,9}"))
+                    return null;
+                options.put(name, value);
+            }
+        }
+
+        return new CopyCommand(keyspace, table, columns,
+                m.group(3).equalsIgnoreCase("from"), unquote(m.group(4)), options);
+    }
+
+    public String option(String name, String defaultValue) {
+        String value = options.get(name);
+        return (null == value) ? defaultValue : value;
+    }
+
+    public boolean booleanOption(String name, boolean defaultValue) {
+        String value = options.get(name);
+        if (null == value)
+            return defaultValue;
+        return value.equalsIgnoreCase("true") || value.equalsIgnoreCase("yes") || value.equals("1");
+    }
+
+    public int intOption(String name, int defaultValue) {
+        String value = options.get(name);
+        return (null == value) ? defaultValue : Integer.parseInt(value);
+    }
+
+    public char charOption(String name, char defaultValue) {
+        String value = options.get(name);
+        return ((null == value) || value.isEmpty()) ? defaultValue : value.charAt(0);
+    }
+
+    public String qualifiedTable() {
+        return keyspace + "." + table;
+    }
+
+    private static String unquote(String s) {
+        if ((2 <= s.length())
+                && ((s.startsWith("'") && s.endsWith("'")) || (s.startsWith("\"") && s.endsWith("\""))))
+            return s.substring(1, s.length() - 1);
+        return s;
+    }
+
+    private static String unescape(String s) {
+        return s.replace("\\t", "\t");
+    }
+}
@@ -1,42 +1,173 @@
 package hessian.cqlish;
 
 import com.datastax.driver.core.*;
+import com.datastax.driver.core.exceptions.DriverException;
 import com.datastax.driver.core.exceptions.QueryValidationException;
+import com.datastax.driver.core.exceptions.TraceRetrievalException;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.exceptions.RequestExecutionException;
+import org.apache.cassandra.exceptions.RequestValidationException;
 import org.cassandraunit.utils.RestartableEmbeddedCassandraServerHelper;
 
+import jline.UnsupportedTerminal;
 import jline.console.ConsoleReader;
 import jline.console.UserInterruptException;
 import jline.console.history.MemoryHistory;
+import jline.internal.NonBlockingInputStream;
+import org.hyperic.jni.ArchNotSupportedException;
+import org.hyperic.sigar.Sigar;
+import org.hyperic.sigar.SigarLoader;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 public class CqlishApplication {
     private String version = "0.0.2";
-    private Session session;
+    private volatile Session session;
     private CodecRegistry codecRegistry;
     private String scriptFile;
+    private String statements;  // -e
+    private String daemon;  // true, false or stop; null to use a running daemon if there is one
+    private ResultWriter.Format format;  // -format: only results, to standard output; null for the console
+    private int daemonPort = 0;
+    private final List<String> nodeArgs = new ArrayList<String>();  // the NODE_ARGS given, which a running daemon would ignore
     private ConsoleReader reader;
-    private String cql;
+    private final StatementBuffer statementBuffer = new StatementBuffer();
     private boolean resetCassandra = false;
+    private String fixture;
+    private NodeProfile profile;
+    private boolean minimal = false;
+    private boolean ephemeral = false;
+    private String ephemeralDir;
+    private String tmpDir = RestartableEmbeddedCassandraServerHelper.DEFAULT_TMP_DIR;
+    private volatile long readyMillis = -1;  // since JVM start
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private long pagerThreshold = DEFAULT_PAGER_THRESHOLD;  // 0 to always print
+    private int asyncWindow = 0;
+    private int preparedCacheSize = PreparedStatementCache.DEFAULT_CAPACITY;
+    private PreparedStatementCache preparedCache;
+    private final StatementStats statementStats = new StatementStats();
+    private boolean inProcess = false;
+    private InProcessExecutor inProcessExecutor;
+    private boolean showTiming = false;
+    private boolean tracing = false;
+    private int timeoutMs = 0;  // 0 for the driver's and the node's own timeouts
+    private long[] nodeTimeoutsMs;  // the node's read, range and write timeouts before TIMEOUT changed them
+    private final ExecutorService statementExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "cqlish-statement");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Integer, StatementJob> jobs = new TreeMap<Integer, StatementJob>();  // background statements
+    private int lastJobId = 0;
+    private String metricsOut;
+    private long metricsInterval = MetricsReporter.DEFAULT_INTERVAL_SECONDS;
+    private volatile MetricsReporter metricsReporter;
+    private volatile Capture capture;  // CAPTURE: where results go instead of the terminal
+    private final Map<String, Long> timings = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+    private final List<String> queued = new ArrayList<String>();  // statements typed before Cassandra was ready
+    private final CountDownLatch bootLatch = new CountDownLatch(1);
+    private volatile boolean ready = false;
+    private volatile Throwable bootError;
+    private volatile boolean reading = false;
+    private volatile boolean paging = false;  // the pager is reading the terminal
+    private volatile CommitLogReplayTimer replayTimer;
+
+    public static final int DEFAULT_FETCH_SIZE = QueryOptions.DEFAULT_FETCH_SIZE;
+    public static final long DEFAULT_PAGER_THRESHOLD = 10000;
+    public static final int DEFAULT_ASYNC_WINDOW = 128;
+    public static final long PROGRESS_INTERVAL_MS = 2000;
+    public static final long LIVE_PROGRESS_DELAY_MS = 1000;
+    public static final long CLIENT_TIMEOUT_SLACK_MS = 1000;
+    private static final long POLL_MS = 100;
+    private static final List<String> NODE_ARGS = Arrays.asList("-reset", "-fixture", "-profile", "-minimal", "-ephemeral", "-ephemeraldir",
+            "-inprocess", "-async", "-fetchsize", "-preparedcache", "-timing", "-metrics-out", "-metrics-interval");
+    private static final int CTRL_C = 3;
+    private static final int NO_INPUT = -2;  // NonBlockingInputStream.peek() timed out
+    private static final Pattern CAPTURE_PATTERN = Pattern.compile("CAPTURE\\s+(?:'([^']+)'|(\\S+))(?:\\s+FORMAT\\s+(\\S+))?", Pattern.CASE_INSENSITIVE);
+
+    public CqlishApplication() {
+    }
+
+    /**
+     * An application that prints to reader instead of the terminal, for
+     * driving it from code (e.g. the benchmarks).  Call connect() before
+     * running statements.
+     */
+    public CqlishApplication(ConsoleReader reader) {
+        this.reader = reader;
+    }
 
     public static String usage() {
-        return "cqlish [-reset <true/false>] [-f <scriptfile>]" +
+        return "cqlish [-reset <true/false>] [-f <scriptfile>] [-async <window>] [-fetchsize <rows>] [-preparedcache <entries>] [-inprocess <true/false>] [-timing <true/false>] [-fixture <name>] [-profile <tiny/default/large/auto>] [-minimal <true/false>] [-ephemeral <true/false>] [-ephemeraldir <dir>] [-metrics-out <file>] [-metrics-interval <seconds>] [-e <statements>] [-format <csv/tsv/json/table>] [-daemon <true/false/stop>] [-daemonport <port>]" +
                 " Options:" +
                 "   -f <scriptfile>       Will execute CQL commands from script file." +
                 "                           One CQL command per line." +
                 "                           Comment lines beginning with #." +
+                "   -async <window>       Execute the script file asynchronously with up to" +
+                "                           <window> statements in flight.  Schema changes" +
+                "                           still run in order.  Default is 0 (synchronous)." +
                 "   -reset <true/false>   If reset is true then all data/tables/keyspaces will be reset." +
-                "                           Default is false.";
+                "                           Default is false." +
+                "   -fixture <name>       Start from the data saved with SAVE FIXTURE <name>." +
+                "                           Replaces all data/tables/keyspaces." +
+                "   -profile <tiny/default/large/auto>  Sizes the heap, memtables, caches and" +
+                "                           thread pools of the embedded node together." +
+                "                           auto picks one from the RAM and cores." +
+                "                           Default is the stock configuration." +
+                "   -minimal <true/false>  Start the embedded node without Thrift, JMX, hints and" +
+                "                           other services cqlish does not need.  Default is false." +
+                "   -ephemeral <true/false>  Keep all data in a tmpfs directory, without commit log" +
+                "                           writes for the keyspaces you create, and remove it on" +
+                "                           exit.  Default is false." +
+                "   -ephemeraldir <dir>   The tmpfs directory for -ephemeral.  Default is " + EphemeralMode.DEFAULT_BASE_DIR + "." +
+                "   -fetchsize <rows>     Number of rows fetched per page of results." +
+                "                           Default is " + DEFAULT_FETCH_SIZE + "." +
+                "   -preparedcache <entries>  Number of automatically prepared statements to keep." +
+                "                           0 disables automatic preparing.  Default is " + PreparedStatementCache.DEFAULT_CAPACITY + "." +
+                "   -inprocess <true/false>  Run queries and writes directly in the embedded node" +
+                "                           instead of through the driver.  Default is false." +
+                "   -timing <true/false>  Print how long each startup phase took.  Default is false." +
+                "   -metrics-out <file>   Write a snapshot of the node and driver metrics to <file>" +
+                "                           every -metrics-interval seconds, as CSV (or JSON" +
+                "                           lines if <file> ends in .json)." +
+                "   -metrics-interval <seconds>  Default is " + MetricsReporter.DEFAULT_INTERVAL_SECONDS + "." +
+                "   -e <statements>       Run the statements (after -f, if given) and exit." +
+                "   -format <csv/tsv/json/table>  With -e or -f, write only the results, in this" +
+                "                           format, to standard output; everything else goes to" +
+                "                           standard error.  Nothing is read from the terminal." +
+                "   -daemon <true/false/stop>  true keeps the node running and serves -e and -f" +
+                "                           from other cqlish processes; stop stops it.  Unless" +
+                "                           false, -e and -f run on the daemon if one is running;" +
+                "                           options for the node (e.g. -reset) then need false." +
+                "   -daemonport <port>    The loopback port the daemon listens on.  Default is any.";
     }
 
     public static void main(String[] args) throws Exception {
         CqlishApplication cqlishApplication = new CqlishApplication();
-        boolean success = cqlishApplication.run(args);
+        boolean success;
+        try {
+            success = cqlishApplication.run(args);
+        }
+        finally {
+            cqlishApplication.shutdown();
+        }
         if (success) {
             System.exit(0);
         } else {
@@ -56,13 +187,95 @@ public class CqlishApplication {
         for (int i = 0; i < args.length; i += 2) {
             amap.put(args[i], args[i + 1]);
         }
+        for (String arg : NODE_ARGS) {
+            if (amap.containsKey(arg))
+                nodeArgs.add(arg);
+        }
         if (null != (tkey = amap.remove("-f")))     scriptFile = tkey;
+        if (null != (tkey = amap.remove("-e")))     statements = tkey;
+        if (null != (tkey = amap.remove("-daemon"))) daemon = tkey.toLowerCase();
+        if (null != (tkey = amap.remove("-format"))) {
+            format = ResultWriter.Format.of(tkey);
+            if (null == format) {
+                System.out.println("Unknown format (" + tkey + ")");
+                return false;
+            }
+        }
         if (null != (tkey = amap.remove("-reset"))) resetCassandra = Boolean.parseBoolean(tkey);
+        if (null != (tkey = amap.remove("-inprocess"))) inProcess = Boolean.parseBoolean(tkey);
+        if (null != (tkey = amap.remove("-timing"))) showTiming = Boolean.parseBoolean(tkey);
+        if (null != (tkey = amap.remove("-metrics-out"))) metricsOut = tkey;
+        if (null != (tkey = amap.remove("-fixture"))) fixture = tkey;
+        if (null != (tkey = amap.remove("-minimal"))) minimal = Boolean.parseBoolean(tkey);
+        if (null != (tkey = amap.remove("-ephemeral"))) ephemeral = Boolean.parseBoolean(tkey);
+        if (null != (tkey = amap.remove("-ephemeraldir"))) ephemeralDir = tkey;
+        try {
+            if (null != (tkey = amap.remove("-fetchsize"))) fetchSize = Integer.parseInt(tkey);
+            if (null != (tkey = amap.remove("-async")))  asyncWindow = Integer.parseInt(tkey);
+            if (null != (tkey = amap.remove("-preparedcache"))) preparedCacheSize = Integer.parseInt(tkey);
+            if (null != (tkey = amap.remove("-metrics-interval"))) metricsInterval = Long.parseLong(tkey);
+            if (null != (tkey = amap.remove("-daemonport"))) daemonPort = Integer.parseInt(tkey);
+        }
+        catch (NumberFormatException nfe) {
+            System.out.println("Not a number (" + tkey + ")");
+            return false;
+        }
+        if (null != (tkey = amap.remove("-profile"))) {
+            profile = NodeProfile.of(tkey);
+            if (null == profile) {
+                System.out.println("Unknown profile (" + tkey + ")");
+                return false;
+            }
+        }
 
         return validateArgs();
     }
 
     public boolean validateArgs() {
+        if (0 >= fetchSize) {
+            System.out.println("Fetch size must be positive (" + fetchSize + ")");
+            return false;
+        }
+        if (0 > asyncWindow) {
+            System.out.println("Async window must not be negative (" + asyncWindow + ")");
+            return false;
+        }
+        if (0 > preparedCacheSize) {
+            System.out.println("Prepared statement cache size must not be negative (" + preparedCacheSize + ")");
+            return false;
+        }
+        if ((null != daemon) && !daemon.equals("true") && !daemon.equals("false") && !daemon.equals(DaemonMode.STOP)) {
+            System.out.println("Daemon must be true, false or stop (" + daemon + ")");
+            return false;
+        }
+        if ("true".equals(daemon) && (null != statements)) {
+            System.out.println("A daemon does not take -e; run cqlish -e once it is running");
+            return false;
+        }
+        if ((null != format) && (null == scriptFile) && (null == statements)) {
+            System.out.println("-format needs -e or -f");
+            return false;
+        }
+        if ((null != format) && "true".equals(daemon)) {
+            System.out.println("A daemon does not take -format; run cqlish -format with -e or -f once it is running");
+            return false;
+        }
+        if ((0 > daemonPort) || (65535 < daemonPort)) {
+            System.out.println("Daemon port must be between 0 and 65535 (" + daemonPort + ")");
+            return false;
+        }
+        if (0 >= metricsInterval) {
+            System.out.println("Metrics interval must be positive (" + metricsInterval + ")");
+            return false;
+        }
+        if ((null != ephemeralDir) && !new File(ephemeralDir).isDirectory()) {
+            System.out.println("Ephemeral directory must be a directory (" + ephemeralDir + ")");
+            return false;
+        }
+        if ((null != fixture) && !Fixtures.exists(fixture)) {
+            System.out.println("Fixture not found (" + fixture + ")");
+            return false;
+        }
         if (null != scriptFile) {
             File tfile = new File(scriptFile);
             if (!tfile.isFile()) {
@@ -74,37 +287,29 @@ public class CqlishApplication {
         return true;
     }
 
+    /**
+     * Extracts the sigar native library for this platform into target/libs,
+     * unless an identical copy is already there, and puts it on the
+     * library path.
+     */
     public boolean extractLibs() {
-        String[] libs = {
-                "libsigar-amd64-freebsd-6.so",
-                "libsigar-amd64-linux.so",
-                "libsigar-amd64-solaris.so",
-                "libsigar-ia64-hpux-11.sl",
-                "libsigar-ia64-linux.so",
-                "libsigar-pa-hpux-11.sl",
-                "libsigar-ppc-aix-5.so",
-                "libsigar-ppc-linux.so",
-                "libsigar-ppc64-aix-5.so",
-                "libsigar-ppc64-linux.so",
-                "libsigar-ppc64le-linux.so",
-                "libsigar-s390x-linux.so",
-                "libsigar-sparc-solaris.so",
-                "libsigar-sparc64-solaris.so",
-                "libsigar-universal-macosx.dylib",
-                "libsigar-universal64-macosx.dylib",
-                "libsigar-x86-freebsd-5.so",
-                "libsigar-x86-freebsd-6.so",
-                "libsigar-x86-linux.so",
-                "libsigar-x86-solaris.so",
-                "sigar-amd64-winnt.dll",
-                "sigar-x86-winnt.dll",
-                "sigar-x86-winnt.lib"};
         String target = System.getProperty("user.dir") + "/target/libs";
         RestartableEmbeddedCassandraServerHelper.mkdir(target);
-        for (String lib : libs) {
-            InputStream is = this.getClass().getResourceAsStream("/libs/" + lib);
-            try {
-                Files.copy(is, Paths.get(target, lib), StandardCopyOption.REPLACE_EXISTING);
+        String lib;
+        try {
+            lib = new SigarLoader(Sigar.class).getLibraryName();
+        }
+        catch (ArchNotSupportedException anse) {
+            lib = null;  // Cassandra runs without sigar, it just cannot check the system settings
+        }
+        if (null != lib) {
+            try (InputStream is = this.getClass().getResourceAsStream("/libs/" + lib)) {
+                if (null != is) {
+                    byte[] bytes = readFully(is);
+                    Path path = Paths.get(target, lib);
+                    if (!Files.isRegularFile(path) || (Files.size(path) != bytes.length) || (crc32(bytes) != crc32(Files.readAllBytes(path))))
+                        Files.write(path, bytes);
+                }
             }
             catch (IOException ioe) {
                 ioe.printStackTrace();
@@ -127,40 +332,380 @@ public class CqlishApplication {
         return true;
     }
 
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 18);
+        byte[] buffer = new byte[1 << 16];
+        int n;
+        while (0 <= (n = is.read(buffer)))
+            out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+
+    private static long crc32(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
     public boolean setup() throws Exception {
-        reader = new ConsoleReader();
-        reader.setHandleUserInterrupt(true);
-        reader.setHistory(new MemoryHistory());
-        reader.setHistoryEnabled(true);
-        printSplash();
+        long begin = System.currentTimeMillis();
+        if (null != format) {
+            // batch: standard output is for the results alone
+            reader = new ConsoleReader(new ByteArrayInputStream(new byte[0]), System.err, new UnsupportedTerminal());
+        }
+        else {
+            reader = new ConsoleReader();
+            reader.setHandleUserInterrupt(true);
+            reader.setHistory(new MemoryHistory());
+            reader.setHistoryEnabled(true);
+            printSplash();
+        }
+        timings.put("console", System.currentTimeMillis() - begin);
 
-        if (!extractLibs())
-            return false;
-        reader.print(colorWrap(ANSI_YELLOW, "Starting embedded Cassandra... "));
-        if (resetCassandra)
-            RestartableEmbeddedCassandraServerHelper.rmdir(RestartableEmbeddedCassandraServerHelper.DEFAULT_TMP_DIR);
-        RestartableEmbeddedCassandraServerHelper.startEmbeddedCassandra();
-        session = RestartableEmbeddedCassandraServerHelper.getSession();
-        reader.println(colorWrap(ANSI_GREEN, " started"));
+        long maxHeapMB = Runtime.getRuntime().maxMemory() >> 20;
+        if ((null != profile) && (maxHeapMB < profile.heapMB * 9L / 10))
+            reader.println(colorWrap(ANSI_RED, "WARNING: the " + profile.name().toLowerCase() + " profile expects a " + profile.heapMB
+                    + " MB heap but the heap is " + maxHeapMB + " MB; run cqlish or set -Xmx"));
+        reader.println(colorWrap(ANSI_YELLOW, "Starting embedded Cassandra in the background..."));
         reader.flush();
-        codecRegistry = session.getCluster().getConfiguration().getCodecRegistry();
+        Thread bootThread = new Thread(this::boot, "cqlish-boot");
+        bootThread.setDaemon(true);
+        bootThread.start();
+        if (showTiming)
+            printTimings("to prompt");
 
         return true;
     }
 
+    // starts Cassandra and connects, then runs the statements typed meanwhile
+    private void boot() {
+        long begin = System.currentTimeMillis();
+        String metricsError = null;  // the node is fine without its metrics file
+        try {
+            if (minimal)
+                MinimalMode.setSystemProperties();
+            else if (!extractLibs())
+                throw new IllegalStateException("could not extract native libraries");
+            timings.put("extract libs", System.currentTimeMillis() - begin);
+            long phase = System.currentTimeMillis();
+            Map<String, String> yamlSettings = new LinkedHashMap<String, String>();
+            if (ephemeral) {
+                File dir = EphemeralMode.tmpDir(ephemeralDir);
+                EphemeralMode.removeStale(dir);
+                tmpDir = dir.getPath();
+                yamlSettings.putAll(EphemeralMode.yamlSettings(dir));
+            }
+            if (resetCassandra || (null != fixture))
+                RestartableEmbeddedCassandraServerHelper.rmdirAsync(tmpDir);
+            else
+                RestartableEmbeddedCassandraServerHelper.deleteAsideAsync(tmpDir);
+            if (null != fixture) {
+                Fixtures.restore(fixture, new File(tmpDir, "data"));
+                timings.put("restore fixture", System.currentTimeMillis() - phase);
+                phase = System.currentTimeMillis();
+            }
+            replayTimer = CommitLogReplayTimer.install();
+            if (null != profile)
+                yamlSettings.putAll(profile.yamlSettings());
+            if (minimal)
+                yamlSettings.putAll(MinimalMode.yamlSettings());
+            RestartableEmbeddedCassandraServerHelper.startEmbeddedCassandra(RestartableEmbeddedCassandraServerHelper.DEFAULT_CASSANDRA_YML_FILE,
+                    tmpDir, RestartableEmbeddedCassandraServerHelper.DEFAULT_STARTUP_TIMEOUT, yamlSettings);
+            timings.put("start Cassandra", System.currentTimeMillis() - phase);
+            timings.put("  log replay", replayTimer.getReplayMillis());
+            phase = System.currentTimeMillis();
+            connect(RestartableEmbeddedCassandraServerHelper.getSession());
+            timings.put("connect driver", System.currentTimeMillis() - phase);
+            if (null != metricsOut) {
+                try {
+                    metricsReporter.start(new File(metricsOut), metricsInterval);
+                }
+                catch (IOException ioe) {
+                    metricsError = "ERROR: could not write " + metricsOut + ": " + ioe.getMessage();
+                }
+            }
+        }
+        catch (Throwable t) {
+            bootError = t;
+        }
+
+        try {
+            synchronized (queued) {
+                if (null != bootError) {
+                    println(ANSI_RED, "\nERROR: Cassandra did not start: " + bootError);
+                    queued.clear();
+                }
+                else {
+                    readyMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+                    println(ANSI_GREEN, "\nCassandra is ready (" + (System.currentTimeMillis() - begin) + " ms)");
+                    if (null != metricsError)
+                        println(ANSI_RED, metricsError);
+                    if (showTiming)
+                        printTimings("to ready");
+                    for (String statement : queued)
+                        executeAndPrintCql(session, statement);
+                    queued.clear();
+                }
+                ready = true;
+            }
+            if (reading)
+                reader.redrawLine();
+            reader.flush();
+        }
+        catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+        finally {
+            bootLatch.countDown();
+        }
+    }
+
+    /**
+     * Runs statements through connected from now on.
+     */
+    public void connect(Session connected) {
+        codecRegistry = connected.getCluster().getConfiguration().getCodecRegistry();
+        preparedCache = new PreparedStatementCache(connected, preparedCacheSize);
+        if (inProcess)
+            inProcessExecutor = new InProcessExecutor(codecRegistry, connected.getCluster().getConfiguration().getProtocolOptions().getProtocolVersion());
+        metricsReporter = new MetricsReporter((null == connected.getCluster().getMetrics()) ? null : connected.getCluster().getMetrics().getRegistry());
+        session = connected;
+    }
+
+    // prints the startup phases so far, and the time since the JVM started
+    private void printTimings(String total) throws IOException {
+        StringBuilder sb = new StringBuilder(" Startup timing:\n");
+        synchronized (timings) {
+            for (Map.Entry<String, Long> timing : timings.entrySet())
+                sb.append(String.format("   %-16s %6d ms%n", timing.getKey(), timing.getValue()));
+        }
+        sb.append(String.format("   %-16s %6d ms (since JVM start)%n", total,
+                System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime()));
+        println(ANSI_YELLOW, sb.toString());
+    }
+
+    /**
+     * Queues cql if Cassandra is still starting.  Returns false if it
+     * should be run now.
+     */
+    private boolean queueUntilReady(String cql) throws IOException {
+        synchronized (queued) {
+            if (ready && (null != bootError)) {
+                println(ANSI_RED, "ERROR: Cassandra did not start: " + bootError);
+                return true;
+            }
+            if (ready)
+                return false;
+            queued.add(cql);
+            println(ANSI_YELLOW, "Cassandra is still starting; queued (" + queued.size() + " waiting)");
+            return true;
+        }
+    }
+
+    /**
+     * Flushes the memtables and recycles the commit log, so that the next
+     * start does not have to replay it.  An ephemeral node is removed instead.
+     */
+    public void shutdown() throws IOException {
+        if ((null == reader) || (0 != bootLatch.getCount()) || (null != bootError))
+            return;
+        Capture capturing = capture;
+        try {
+            closeCapture();
+        }
+        catch (IOException ioe) {
+            println(ANSI_RED, "ERROR: could not write " + capturing.file + ": " + ioe.getMessage());
+        }
+        try {
+            metricsReporter.stop();
+        }
+        catch (IOException ioe) {
+            println(ANSI_RED, "ERROR: could not write " + metricsOut + ": " + ioe.getMessage());
+        }
+        long begin = System.currentTimeMillis();
+        if (ephemeral) {
+            // nothing is kept, so there is nothing to flush
+            reader.print(colorWrap(ANSI_YELLOW, "Removing " + tmpDir + "... "));
+            reader.flush();
+            RestartableEmbeddedCassandraServerHelper.abandonEmbeddedCassandra();
+            try {
+                RestartableEmbeddedCassandraServerHelper.rmdir(tmpDir);
+            }
+            catch (RuntimeException e) {
+                // the node may still be writing; the next ephemeral session removes what is left
+                println(ANSI_RED, "ERROR: could not remove " + tmpDir + ": " + e);
+                return;
+            }
+            println(ANSI_YELLOW, "done (" + (System.currentTimeMillis() - begin) + " ms)");
+            return;
+        }
+        reader.print(colorWrap(ANSI_YELLOW, "Flushing memtables... "));
+        reader.flush();
+        try {
+            RestartableEmbeddedCassandraServerHelper.drainEmbeddedCassandra();
+        }
+        catch (Exception e) {
+            println(ANSI_RED, "ERROR: could not drain Cassandra: " + e);
+            return;
+        }
+        println(ANSI_YELLOW, "done (" + (System.currentTimeMillis() - begin) + " ms)");
+    }
+
+    /**
+     * Waits for Cassandra to start and for the queued statements to run.
+     * Returns false if Cassandra did not start.
+     */
+    public boolean awaitReady() throws InterruptedException {
+        bootLatch.await();
+        return null == bootError;
+    }
+
     public boolean run(String[] args) throws Exception {
         if (!parseArgs(args)) {
             System.err.println(usage());
             return false;
         }
+        if (DaemonMode.STOP.equals(daemon))
+            return DaemonMode.stop(System.out);
+        if ((null == daemon) && ((null != scriptFile) || (null != statements))) {
+            if (!nodeArgs.isEmpty()) {
+                if (DaemonMode.isRunning()) {
+                    System.out.println("The running daemon would ignore " + String.join(" ", nodeArgs) + "; pass -daemon false to run without it");
+                    return false;
+                }
+            }
+            else {
+                Boolean forwarded = DaemonMode.forward(scriptFile, statements, format, System.out, System.err);
+                if (null != forwarded)
+                    return forwarded;
+            }
+        }
         if (!setup())
             return false;
-        if (!processScriptFile(scriptFile))
+        if (((null != scriptFile) || (null != statements) || "true".equals(daemon)) && !awaitReady())
             return false;
+        if (null != format)
+            return runBatch(scriptFile, (null == statements) ? Collections.<String>emptyList() : StatementBuffer.split(statements), ChannelWriter.stdout());
+        if ((0 < asyncWindow) ? !processScriptFileAsync(scriptFile, asyncWindow) : !processScriptFile(scriptFile))
+            return false;
+        if ("true".equals(daemon))
+            return DaemonMode.serve(this, daemonPort);
+        if (null != statements) {
+            boolean success = true;
+            for (String statement : StatementBuffer.split(statements))
+                success &= executeAndPrintCql(session, statement);
+            return success;
+        }
 
         return doRepl();
     }
 
+    /**
+     * Serves a request to the daemon: runs its -f and -e lines with
+     * everything printed to connection, or, after a -format line, with
+     * only the results written to results.
+     */
+    public boolean serve(ConsoleReader connection, Writer results, List<String> requests) throws IOException {
+        ConsoleReader console = reader;
+        ResultWriter.Format consoleFormat = format;
+        reader = connection;
+        format = null;
+        try {
+            boolean success = true;
+            for (String request : requests) {
+                if (request.startsWith(DaemonMode.FORMAT + " ")) {
+                    format = ResultWriter.Format.of(request.substring(DaemonMode.FORMAT.length() + 1));
+                    if (null == format) {
+                        println(ANSI_RED, "ERROR: bad request: " + request);
+                        return false;
+                    }
+                }
+                else if (request.startsWith(DaemonMode.SOURCE + " ")) {
+                    String file = request.substring(DaemonMode.SOURCE.length() + 1);
+                    if (null != format)
+                        success &= runBatch(file, Collections.<String>emptyList(), results);
+                    else if ((0 < asyncWindow) ? !processScriptFileAsync(file, asyncWindow) : !processScriptFile(file))
+                        return false;
+                }
+                else if (request.startsWith(DaemonMode.EXECUTE + " ")) {
+                    String statement = request.substring(DaemonMode.EXECUTE.length() + 1);
+                    if (null != format)
+                        success &= runBatch(null, Collections.singletonList(statement), results);
+                    else
+                        success &= executeAndPrintCql(session, statement);
+                }
+                else {
+                    println(ANSI_RED, "ERROR: bad request: " + request);
+                    return false;
+                }
+            }
+            return success;
+        }
+        finally {
+            reader = console;
+            format = consoleFormat;
+        }
+    }
+
+    /**
+     * -format: runs file (if not null) and then statements, writing only
+     * their results, in the format, to out.  Messages and errors go to the
+     * console.  Returns false if any statement failed.
+     */
+    private boolean runBatch(String file, List<String> statements, Writer out) throws IOException {
+        ProtocolVersion protocolVersion = session.getCluster().getConfiguration().getProtocolOptions().getProtocolVersion();
+        ResultWriter results = new ResultWriter(out, format, codecRegistry, protocolVersion);
+        int failed = 0;
+        try {
+            if (null != file) {
+                try (ScriptReader script = new ScriptReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                    String line;
+                    while (null != (line = script.next())) {
+                        if (!writeResults(session, line, results))
+                            failed++;
+                    }
+                }
+                catch (FileNotFoundException fe) {
+                    println(ANSI_RED, "ERROR: Could not find file " + file);
+                    return false;
+                }
+            }
+            for (String statement : statements) {
+                if (!writeResults(session, statement, results))
+                    failed++;
+            }
+            out.flush();
+        }
+        catch (IOException ioe) {
+            // e.g. the reader of standard output went away
+            println(ANSI_RED, "ERROR: could not write results: " + ioe.getMessage());
+            return false;
+        }
+        if (0 < failed)
+            println(ANSI_RED, failed + " statements failed");
+        return 0 == failed;
+    }
+
+    // runs cql and writes its rows to results; returns false if it failed
+    private boolean writeResults(Session session, String cql, ResultWriter results) throws IOException {
+        cql = cql.trim();
+        if (handleSpecialCommands(cql))
+            return true;
+        StatementJob job = new StatementJob(0, ResultWriter.forFormat(cql, format), false);
+        ResultSet resultSet = executeCql(session, job, reader.getOutput());
+        if (null == resultSet)
+            return false;
+        try {
+            results.write(job.pages(resultSet));
+        }
+        catch (DriverException de) {
+            // a later page failed
+            println(ANSI_RED, "ERROR: " + de.getMessage());
+            return false;
+        }
+        return true;
+    }
+
     public void help() throws IOException {
         String help = " Enter CQL and end the CQL statment with a semicolon ';'.\n" +
                 " You can have multi-line CQL statements, just hit Enter mid-statement\n" +
@@ -170,17 +715,57 @@ public class CqlishApplication {
                 "   HELP            this message\n" +
                 "   EXIT, QUIT      exits cqlish\n" +
                 "   CLEAR           clears the screen\n" +
-                "   SOURCE <file>   executes the CQL commands in the supplied file\n";
+                "   SOURCE <file>   executes the CQL commands in the supplied file\n" +
+                "   SOURCE ASYNC [<window>] <file>  executes the file with up to <window> statements in flight\n" +
+                "   PAGING [<n>|ON|OFF]  shows or sets the number of rows fetched per page\n" +
+                "   PAGER [<rows>|ON|OFF]  shows or sets how many rows a result needs to open in the pager\n" +
+                "                   (" + Pager.KEYS + ")\n" +
+                "   TRACING [ON|OFF]  shows or sets whether statements are traced; traces print after the results\n" +
+                "   TIMEOUT [<ms>|DEFAULT]  shows or sets how long the node and the driver wait for each request\n" +
+                "   <statement>; &  runs the statement in the background; CTRL-C cancels a statement in the foreground\n" +
+                "   JOBS            lists the background statements\n" +
+                "   JOBS CANCEL <n> cancels background statement <n>\n" +
+                "   COPY <table> [(<columns>)] FROM '<file>' [WITH <option> = <value> [AND ...]]\n" +
+                "                   loads a CSV file into a table\n" +
+                "   COPY <table> [(<columns>)] TO '<file>' [WITH <option> = <value> [AND ...]]\n" +
+                "                   exports a table to a CSV (or, WITH FORMAT = 'json', JSON lines) file\n" +
+                "   BULKLOAD <table> [(<columns>)] FROM '<file>' [WITH <option> = <value> [AND ...]]\n" +
+                "                   loads a CSV file by writing SSTables directly into the embedded node\n" +
+                "   SAVE FIXTURE <name>  saves all data under <name> (hard links, no copying)\n" +
+                "   LOAD FIXTURE <name>  replaces all keyspaces with the data saved under <name>\n" +
+                "   STATS           shows statement latency by type and the slowest statements\n" +
+                "   STATS RESET     clears the statement latency histograms\n" +
+                "   STATS EXPORT '<file>'  writes the latency histograms to an HdrHistogram log\n" +
+                "   STATS PREPARED  shows the automatic prepared statement cache hit rate\n" +
+                "   CAPTURE '<file>' [FORMAT csv|tsv|json|table]  appends results to <file> instead of printing them\n" +
+                "   CAPTURE [OFF]   shows the capture file, or stops capturing\n" +
+                "   METRICS [<filter>]  shows the main node and driver metrics, or all whose name contains <filter>\n" +
+                "   BENCH <iterations> [CONCURRENCY <n>] [RATE <ops/sec>] <statement>\n" +
+                "                   runs a statement with generated values for its ? markers and reports latency\n" +
+                "   GENERATE <n> ROWS INTO <table> [PARTITIONS <p>] [ROWS PER PARTITION <r>] [SEED <s>]\n" +
+                "                   fills a table with synthetic rows; the same seed gives the same rows\n";
         reader.println(colorWrap(ANSI_YELLOW, help));
         reader.flush();
     }
 
     public void info() throws IOException {
+        long rss = MinimalMode.residentMemoryMB();
         String info = " Info:\n" +
                 "   Version: " + version + "\n" +
                 "   Terminal: " + reader.getTerminal().toString() + "\n" +
                 "   Terminal supports ANSI: " + reader.getTerminal().isAnsiSupported() + "\n" +
-                "   Terminal output encoding: " + reader.getTerminal().getOutputEncoding() + "\n";
+                "   Terminal output encoding: " + reader.getTerminal().getOutputEncoding() + "\n" +
+                "   Executor: " + ((null == inProcessExecutor) ? "driver" : "in-process") + "\n" +
+                "   Profile: " + ((null == profile) ? "stock" : profile.describe()) + "\n" +
+                "   Max heap: " + (Runtime.getRuntime().maxMemory() >> 20) + " MB\n" +
+                "   Services: " + (minimal ? "minimal" : "all") + "\n" +
+                "   Data: " + tmpDir + (ephemeral ? " (ephemeral)" : "") + "\n" +
+                "   Startup: " + ((0 > readyMillis) ? "still starting" : readyMillis + " ms from JVM start to ready") + "\n" +
+                "   Resident memory: " + ((0 > rss) ? "n/a" : rss + " MB") + "\n" +
+                "   Threads: " + MinimalMode.threadCount() + " (peak " + ManagementFactory.getThreadMXBean().getPeakThreadCount() + ")\n" +
+                "   Commit log replay at startup: " + ((null == replayTimer) ? "n/a"
+                        : replayTimer.getReplayMillis() + " ms (" + replayTimer.getMutations() + " mutations from "
+                        + replayTimer.getSegments() + " segments)") + "\n";
         reader.println(colorWrap(ANSI_YELLOW, info));
         reader.flush();
     }
@@ -191,9 +776,14 @@ public class CqlishApplication {
         return prefix + string + suffix;
     }
 
+    public void println(String color, String message) throws IOException {
+        reader.println(colorWrap(color, message));
+        reader.flush();
+    }
+
     public String firstPrompt() {
         String firstPrompt = "cqlish:";
-        if (null != session.getLoggedKeyspace())
+        if ((null != session) && (null != session.getLoggedKeyspace()))
             firstPrompt = firstPrompt + session.getLoggedKeyspace();
         return firstPrompt + "> ";
     }
@@ -232,19 +822,23 @@ public class CqlishApplication {
     }
 
     public boolean doRepl() throws Exception {
-        cql = "";
+        statementBuffer.clear();
         Writer writer = reader.getOutput();
         while (true) {
-            String prompt = colorWrap(ANSI_CYAN, cql.isEmpty() ? firstPrompt() : continuedPrompt());
+            String prompt = colorWrap(ANSI_CYAN, statementBuffer.isEmpty() ? firstPrompt() : continuedPrompt());
             String line = null;
 
             try {
+                reading = true;
                 line = reader.readLine(prompt);
             }
             catch (UserInterruptException uie) {
-                cql = "";
+                statementBuffer.clear();
                 continue;
             }
+            finally {
+                reading = false;
+            }
             if (null == line) {
                 break;
             }
@@ -276,15 +870,26 @@ public class CqlishApplication {
                 continue;
             }
 
-            cql = cql + " " + line;
-            if (!cql.endsWith(";")) {
+            boolean background = false;
+            if (line.endsWith("&") && line.substring(0, line.length() - 1).trim().endsWith(";")) {
+                background = true;
+                line = line.substring(0, line.length() - 1).trim();
+            }
+            String cql = statementBuffer.add(line);
+            if (null == cql) {
                 continue;
             }
 
-            executeAndPrintCql(session, cql);
-            cql = "";
+            if (queueUntilReady(cql))
+                continue;
+            if (background)
+                executeInBackground(session, cql);
+            else
+                executeAndPrintCql(session, cql, true);
         }
 
+        awaitReady();
+        cancelJobs();
         reader.println(colorWrap(ANSI_YELLOW, "\nExiting...."));
         reader.flush();
         return true;
@@ -295,9 +900,9 @@ public class CqlishApplication {
             return true;
 
         File infile = new File(file);
-        Scanner scanner;
+        ScriptReader script;
         try {
-            scanner = new Scanner(new FileInputStream(infile));
+            script = new ScriptReader(new InputStreamReader(new FileInputStream(infile), StandardCharsets.UTF_8));
         } catch (FileNotFoundException fe) {
             reader.println(colorWrap(ANSI_RED, "ERROR: Could not find file " + file));
             reader.flush();
@@ -306,54 +911,373 @@ public class CqlishApplication {
 
         reader.println(colorWrap(ANSI_YELLOW,"Processing scriptfile " + file + ":"));
         reader.flush();
-        while (scanner.hasNext()) {
-            String line = scanner.nextLine();
-            line = line.trim();
-            if (line.startsWith("#"))
-                continue;
-            executeCql(session, line);
+        try {
+            String line;
+            while (null != (line = script.next()))
+                executeCql(session, line);
+        }
+        finally {
+            script.close();
         }
         reader.println(colorWrap(ANSI_YELLOW, "Finished processing scriptfile"));
         reader.flush();
         return true;
     }
 
-    public ResultSet executeCql(Session session, String cql) throws IOException {
-        reader.println(colorWrap(ANSI_YELLOW, " ==> " + cql));
+    public boolean processScriptFileAsync(String file, int window) throws IOException {
+        if (null == file)
+            return true;
+
+        File infile = new File(file);
+        if (!infile.isFile()) {
+            reader.println(colorWrap(ANSI_RED, "ERROR: Could not find file " + file));
+            reader.flush();
+            return false;
+        }
+
+        reader.println(colorWrap(ANSI_YELLOW,"Processing scriptfile " + file + " asynchronously (window " + window + "):"));
+        reader.flush();
+        PipelinedExecutor executor = new PipelinedExecutor(session, window,
+                (tag, context, nanos) -> statementStats.record((String)context, nanos));
+        long fileSize = Math.max(1, infile.length());
+        long sent = 0;
+        long begin = System.currentTimeMillis();
+        long nextProgress = begin + PROGRESS_INTERVAL_MS;
+        try (ScriptReader script = new ScriptReader(new InputStreamReader(new FileInputStream(infile), StandardCharsets.UTF_8))) {
+            String line;
+            while (null != (line = script.next())) {
+                long lineNumber = script.getLineNumber();
+                Statement statement = toStatement(line);
+                if (StatementType.of(line).isBarrier()) {
+                    // schema changes and USE wait for everything before them and finish before anything after
+                    executor.drain();
+                    executor.execute(statement, lineNumber, line);
+                    executor.drain();
+                }
+                else {
+                    executor.execute(statement, lineNumber, line);
+                }
+                sent++;
+                printScriptFailures(file, executor);
+                long now = System.currentTimeMillis();
+                if (now >= nextProgress) {
+                    reader.println(colorWrap(ANSI_YELLOW, String.format("  %d statements (%d%%), %.0f statements/sec, %d errors",
+                            executor.getCompleted(), Math.min(100, 100 * script.getCharsRead() / fileSize),
+                            executor.getCompleted() * 1000.0 / (now - begin), executor.getFailed())));
+                    reader.flush();
+                    nextProgress = now + PROGRESS_INTERVAL_MS;
+                }
+            }
+            executor.drain();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            reader.println(colorWrap(ANSI_RED, "ERROR: interrupted processing scriptfile " + file));
+            reader.flush();
+            return false;
+        }
+        printScriptFailures(file, executor);
+        long elapsed = Math.max(1, System.currentTimeMillis() - begin);
+        reader.println(colorWrap(ANSI_YELLOW, String.format("Finished processing scriptfile: %d statements in %d ms (%.0f statements/sec), %d errors",
+                sent, elapsed, sent * 1000.0 / elapsed, executor.getFailed())));
+        reader.flush();
+        return true;
+    }
+
+    private void printScriptFailures(String file, PipelinedExecutor executor) throws IOException {
+        PipelinedExecutor.Failure failure;
+        while (null != (failure = executor.pollFailure()))
+            reader.println(colorWrap(ANSI_RED, "ERROR: " + file + ":" + failure.tag + ": " + failure.error.getMessage()));
         reader.flush();
+    }
+
+    public ResultSet executeCql(Session session, String cql) throws IOException {
+        println(ANSI_YELLOW, " ==> " + cql);
+        return executeCql(session, new StatementJob(0, cql, false), reader.getOutput());
+    }
+
+    /**
+     * Runs the job's statement, printing errors to out.  Returns null if
+     * the statement failed or was cancelled.
+     */
+    private ResultSet executeCql(Session session, StatementJob job, Writer out) throws IOException {
         ResultSet resultSet;
         try {
-            resultSet = session.execute(cql);
+            long begin = System.nanoTime();
+            if (!tracing && (null != inProcessExecutor) && InProcessExecutor.handles(job.cql)) {
+                resultSet = inProcessExecutor.execute(job.cql, session.getLoggedKeyspace(), fetchSize);
+            }
+            else {
+                Statement statement = toStatement(job.cql);
+                if (tracing)
+                    statement.enableTracing();
+                resultSet = job.await(session.executeAsync(statement));
+                if (null == resultSet) {
+                    println(out, ANSI_RED, "Cancelled");
+                    return null;
+                }
+            }
+            statementStats.record(job.cql, System.nanoTime() - begin);
         } catch (QueryValidationException qve) {
-            reader.println(colorWrap(ANSI_RED, "Invalid Query: " + qve.getMessage()));
-            reader.flush();
+            println(out, ANSI_RED, "Invalid Query: " + qve.getMessage());
+            return null;
+        } catch (RequestValidationException rve) {
+            println(out, ANSI_RED, "Invalid Query: " + rve.getMessage());
+            return null;
+        } catch (RequestExecutionException ree) {
+            // -inprocess: the node's own timeouts and unavailable errors
+            println(out, ANSI_RED, "ERROR: " + ree.getMessage());
+            return null;
+        } catch (DriverException de) {
+            println(out, ANSI_RED, "ERROR: " + de.getMessage());
             return null;
         }
 
         return resultSet;
     }
 
-    public void executeAndPrintCql(Session session, String cql) throws IOException {
+    public Statement toStatement(String cql) {
+        if (ephemeral)
+            cql = EphemeralMode.nonDurable(cql);
+        Statement statement = preparedCache.statementFor(cql);
+        if (null == statement)
+            statement = new SimpleStatement(cql);
+        if (0 < timeoutMs)
+            statement.setReadTimeoutMillis(timeoutMs + (int)CLIENT_TIMEOUT_SLACK_MS);
+        return statement.setFetchSize(fetchSize);
+    }
+
+    public boolean executeAndPrintCql(Session session, String cql) throws IOException {
+        return executeAndPrintCql(session, cql, false);
+    }
+
+    /**
+     * Runs cql on the statement executor and waits for it.  From the
+     * prompt (interactive), CTRL-C cancels it and, on an ANSI terminal, a
+     * progress line shows while it waits on the node.  Returns false if
+     * the statement failed.
+     */
+    private boolean executeAndPrintCql(Session session, String cql, boolean interactive) throws IOException {
+        cql = cql.trim();
+        if (handleSpecialCommands(cql))
+            return true;
+        StatementJob job = new StatementJob(0, forCapture(cql), false);
+        Future<Boolean> future = statementExecutor.submit(() ->
+                printStatement(session, job, reader.getOutput(), interactive && reader.getTerminal().isAnsiSupported()));
+
+        // jline only turns CTRL-C into input while reading a line, so, as the pager does, keep it
+        // from being a signal meanwhile and watch the terminal for it; anything else typed is left for the prompt
+        NonBlockingInputStream input = null;
+        if (interactive && (reader.getInput() instanceof NonBlockingInputStream) && ((NonBlockingInputStream)reader.getInput()).isNonBlockingEnabled()) {
+            input = (NonBlockingInputStream)reader.getInput();
+            reader.getTerminal().disableInterruptCharacter();
+        }
+        try {
+            boolean showProgress = interactive && reader.getTerminal().isAnsiSupported();
+            while (!future.isDone()) {
+                try {
+                    int key = ((null == input) || paging) ? -1 : input.peek(POLL_MS);
+                    if (CTRL_C == key) {
+                        input.read();
+                        job.cancel();
+                    }
+                    else if (NO_INPUT != key) {
+                        future.get(POLL_MS, TimeUnit.MILLISECONDS);
+                    }
+                }
+                catch (TimeoutException | ExecutionException e) {
+                    // still running, or failed (reported below)
+                }
+                catch (InterruptedException ie) {
+                    job.cancel();
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                if (showProgress && (job.getElapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(LIVE_PROGRESS_DELAY_MS)))
+                    job.drawProgress(reader.getOutput());
+            }
+        }
+        finally {
+            if (null != input)
+                reader.getTerminal().enableInterruptCharacter();
+        }
+        try {
+            return future.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException)
+                throw (IOException)ee.getCause();
+            if (ee.getCause() instanceof RuntimeException)
+                throw (RuntimeException)ee.getCause();
+            throw new IOException(ee.getCause());
+        }
+    }
+
+    // runs the job's statement and prints its results (or, if page and there are many, pages them), elapsed time and traces to out; returns false if it failed
+    private boolean printStatement(Session session, StatementJob job, Writer out, boolean page) throws IOException {
+        try {
+            println(out, ANSI_YELLOW, " ==> " + job.cql);
+            long begin = System.nanoTime();
+            ResultSet resultSet = executeCql(session, job, out);
+            long elapsed = System.nanoTime() - begin;
+
+            // Handle error
+            if (null == resultSet)
+                return false;
+
+            ResultSet rows = job.pages(resultSet);
+            Capture capturing = capture;
+            boolean success = true;
+            try {
+                if (rows.isExhausted()) {
+                    println(out, null, "Ok");
+                }
+                else if (null != capturing) {
+                    try {
+                        println(out, ANSI_YELLOW, capturing.write(rows));
+                    }
+                    catch (IOException ioe) {
+                        println(out, ANSI_RED, "ERROR: could not write " + capturing.file + ": " + ioe.getMessage());
+                        success = false;
+                    }
+                }
+                else if (page && (0 < pagerThreshold) && !(resultSet.isFullyFetched() && (resultSet.getAvailableWithoutFetching() <= pagerThreshold))) {
+                    pageResults(rows, out);
+                }
+                else {
+                    prettyPrint(rows, out);
+                }
+            }
+            catch (DriverException de) {
+                // a later page failed, e.g. timed out
+                println(out, ANSI_RED, "ERROR: " + de.getMessage());
+                success = false;
+            }
+            if (job.isCancelled())
+                println(out, ANSI_RED, "Cancelled after " + job.getRowsFetched() + " rows");
+            out.write(String.format("%n Elapsed time: %.3f ms%n%n", elapsed / 1000000.0));
+            out.flush();
+            if (tracing)
+                printTraces(resultSet, out);
+            return success;
+        }
+        finally {
+            job.finish();
+        }
+    }
+
+    // runs cql on the statement executor and prints its output above the prompt when it is done
+    private void executeInBackground(Session session, String cql) throws IOException {
         cql = cql.trim();
         if (handleSpecialCommands(cql))
             return;
-        long begin = System.currentTimeMillis();
-        ResultSet resultSet = executeCql(session, cql);
-        long end = System.currentTimeMillis();
-        long elapsed = end - begin;
+        StatementJob job;
+        synchronized (jobs) {
+            job = new StatementJob(++lastJobId, forCapture(cql), true);
+            jobs.put(job.id, job);
+        }
+        println(ANSI_YELLOW, "[" + job.id + "] " + cql);
+        statementExecutor.submit(() -> {
+            StringWriter out = new StringWriter();
+            try {
+                printStatement(session, job, out, false);
+            }
+            catch (IOException | RuntimeException e) {
+                println(out, ANSI_RED, "ERROR: " + e);
+            }
+            println(out, ANSI_YELLOW, "[" + job.id + "] " + describe(job));
+            reader.print((reading ? "\n" : "") + out);
+            if (reading)
+                reader.redrawLine();
+            reader.flush();
+            return null;
+        });
+    }
 
-        // Handle error
-        if (null == resultSet)
+    // spills rows to a file and shows them in the pager, or prints them if there are no more than the threshold
+    private void pageResults(ResultSet rows, Writer out) throws IOException {
+        ProtocolVersion protocolVersion = session.getCluster().getConfiguration().getProtocolOptions().getProtocolVersion();
+        SpillFile spill;
+        try {
+            spill = SpillFile.spill(rows, codecRegistry, protocolVersion);
+        }
+        catch (IOException ioe) {
+            println(out, ANSI_RED, "ERROR: could not spill the results to a file: " + ioe.getMessage());
             return;
+        }
+        try {
+            Pager pager = new Pager(reader, spill);
+            if (spill.getRowCount() <= pagerThreshold) {
+                pager.print(out, reader.getTerminal().isAnsiSupported());
+            }
+            else {
+                paging = true;
+                try {
+                    pager.page();
+                }
+                finally {
+                    paging = false;
+                    // the pager turns CTRL-C back into a signal when it is done, but the statement is not
+                    reader.getTerminal().disableInterruptCharacter();
+                }
+                println(out, ANSI_YELLOW, String.format("%d rows (%.1f MB spilled)", spill.getRowCount(), spill.getByteCount() / 1048576.0));
+            }
+        }
+        finally {
+            spill.close();
+        }
+    }
 
-        if (resultSet.isExhausted()) {
-            reader.println("Ok");
-            reader.flush();
-        } else {
-            prettyPrint(resultSet);
+    // cql as it runs while capturing, e.g. as a SELECT JSON for a JSON capture
+    private String forCapture(String cql) {
+        Capture capturing = capture;
+        return (null == capturing) ? cql : ResultWriter.forFormat(cql, capturing.format);
+    }
+
+    private void closeCapture() throws IOException {
+        Capture closing = capture;
+        capture = null;
+        if (null != closing)
+            closing.close();
+    }
+
+    private static String describe(StatementJob job) {
+        return String.format("%-9s %8.1f s %9d rows  %s", job.isCancelled() ? "Cancelled" : job.isDone() ? "Done" : "Running",
+                job.getElapsedNanos() / 1e9, job.getRowsFetched(), job.cql);
+    }
+
+    // cancels the background statements still running and lets them report
+    private void cancelJobs() throws InterruptedException {
+        synchronized (jobs) {
+            for (StatementJob job : jobs.values())
+                job.cancel();
+        }
+        statementExecutor.shutdown();
+        statementExecutor.awaitTermination(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void println(Writer out, String color, String message) throws IOException {
+        out.write(((null == color) ? message : colorWrap(color, message)) + "\n");
+        out.flush();
+    }
+
+    // prints the trace of each page of resultSet
+    private void printTraces(ResultSet resultSet, Writer out) throws IOException {
+        for (ExecutionInfo executionInfo : resultSet.getAllExecutionInfo()) {
+            QueryTrace trace = executionInfo.getQueryTrace();
+            if (null == trace)
+                continue;
+            try {
+                println(out, ANSI_YELLOW, TraceRenderer.render(trace));
+            }
+            catch (TraceRetrievalException tre) {
+                println(out, ANSI_RED, "ERROR: could not fetch trace " + trace.getTraceId() + ": " + tre.getMessage());
+            }
         }
-        reader.println("\n Elapsed time: " + elapsed + " ms\n");
-        reader.flush();
     }
 
     public static final String ANSI_RESET = "\u001B[0m";
@@ -367,61 +1291,13 @@ public class CqlishApplication {
     public static final String ANSI_WHITE = "\u001B[37m";
 
     public void prettyPrint(ResultSet resultSet) throws IOException {
-        String header_color_begin = (reader.getTerminal().isAnsiSupported()) ? ANSI_GREEN : "";
-        String null_color_begin = (reader.getTerminal().isAnsiSupported()) ? ANSI_MAGENTA : "";
-        String color_reset = (reader.getTerminal().isAnsiSupported()) ? ANSI_RESET : "";
-        List<ColumnDefinitions.Definition> cdefs = resultSet.getColumnDefinitions().asList();
-        int numCols = cdefs.size();
-        List<String> columnNames = new ArrayList<String>(numCols);
-        List<Integer> longest = new ArrayList<Integer>(numCols);
-        for (int i = 0; i < numCols; i++) {
-            String colname = cdefs.get(i).getName();
-            columnNames.add(colname);
-            longest.add(colname.length());
-        }
-
-        List<List<String>> rows = new ArrayList<List<String>>();
-        for (Row r : resultSet) {
-            List<String> row = new ArrayList<String>(numCols);
-            for (int i = 0; i < numCols; i++) {
-                String cell = r.isNull(i) ? null : codecRegistry.codecFor(cdefs.get(i).getType()).format(r.get(i, codecRegistry.codecFor(cdefs.get(i).getType())));
-                int len = r.isNull(i) ? 4 : cell.length();
-                if (len > longest.get(i))
-                    longest.set(i, len);
-                row.add(cell);
-            }
-            rows.add(row);
-        }
-
-        StringBuilder fmt2 = new StringBuilder(" " + header_color_begin + "%" + longest.get(0) + "." + longest.get(0) + "s" + color_reset + " ");
-        StringBuilder sepline = new StringBuilder();
-        for (int j = 0; j < longest.get(0) + 2; j++)
-            sepline.append("-");
-        for (int i = 1; i < longest.size(); i++) {
-            fmt2.append("| " + header_color_begin + "%" + longest.get(i) + "." + longest.get(i) + "s" + color_reset + " ");
-            sepline.append("+");
-            for (int j = 0; j < longest.get(i) + 2; j++)
-                sepline.append("-");
-        }
-
-        reader.println(String.format(fmt2.toString(), columnNames.toArray()));
-        reader.println(sepline.toString());
-        for (int i = 0; i < rows.size(); i++) {
-            List<String> row = rows.get(i);
-            StringBuilder fmt = new StringBuilder();
-            if (null == row.get(0))
-                fmt.append(" " + null_color_begin + "%" + longest.get(0) + "." + longest.get(0) + "s " + color_reset);
-            else
-                fmt.append(" "                 + "%" + longest.get(0) + "." + longest.get(0) + "s ");
-            for (int j = 1; j < longest.size(); j++) {
-                if (null == row.get(j))
-                    fmt.append("| " + null_color_begin + "%" + longest.get(j) + "." + longest.get(j) + "s " + color_reset);
-                else
-                    fmt.append("| "                 + "%" + longest.get(j) + "." + longest.get(j) + "s ");
-            }
-            reader.println(String.format(fmt.toString(), rows.get(i).toArray()));
-        }
-        reader.flush();
+        prettyPrint(resultSet, reader.getOutput());
+    }
+
+    public void prettyPrint(ResultSet resultSet, Writer out) throws IOException {
+        ProtocolVersion protocolVersion = session.getCluster().getConfiguration().getProtocolOptions().getProtocolVersion();
+        TablePrinter printer = new TablePrinter(out, reader.getTerminal().isAnsiSupported(), codecRegistry, protocolVersion);
+        printer.print(resultSet);
     }
 
     public boolean handleSpecialCommands(String input) throws IOException {
@@ -434,6 +1310,46 @@ public class CqlishApplication {
         if (cmd.equalsIgnoreCase("source")) {
             return handleSource(input, pieces);
         }
+        if (cmd.equalsIgnoreCase("paging")) {
+            return handlePaging(input, pieces);
+        }
+        if (cmd.equalsIgnoreCase("pager")) {
+            return handlePager(input, pieces);
+        }
+        if (cmd.equalsIgnoreCase("copy")) {
+            return handleCopy(input, pieces);
+        }
+        if (cmd.equalsIgnoreCase("bulkload")) {
+            return handleBulkload(input, pieces);
+        }
+        if (cmd.equalsIgnoreCase("stats")) {
+            return handleStats(input, pieces);
+        }
+        if (cmd.equalsIgnoreCase("metrics")) {
+            return handleMetrics(input, pieces);
+        }
+        if (cmd.equalsIgnoreCase("capture")) {
+            return handleCapture(input, pieces);
+        }
+        if (cmd.equalsIgnoreCase("timeout")) {
+            return handleTimeout(input, pieces);
+        }
+        if (cmd.equalsIgnoreCase("jobs")) {
+            return handleJobs(input, pieces);
+        }
+        if (cmd.equalsIgnoreCase("tracing")) {
+            return handleTracing(input, pieces);
+        }
+        if (cmd.equalsIgnoreCase("bench")) {
+            return handleBench(input, pieces);
+        }
+        if (cmd.equalsIgnoreCase("generate")) {
+            return handleGenerate(input, pieces);
+        }
+        if ((cmd.equalsIgnoreCase("save") || cmd.equalsIgnoreCase("load"))
+                && (1 < pieces.length) && pieces[1].equalsIgnoreCase("fixture")) {
+            return handleFixture(input, pieces);
+        }
         return false;
     }
 
@@ -550,20 +1466,355 @@ public class CqlishApplication {
     }
 
     public boolean handleSource(String input, String[] pieces) throws IOException {
-        if (2 > pieces.length) {
+        int first = 1;
+        int window = 0;
+        if ((pieces.length > 1) && pieces[1].equalsIgnoreCase("async")) {
+            first = 2;
+            window = (0 < asyncWindow) ? asyncWindow : DEFAULT_ASYNC_WINDOW;
+            if ((pieces.length > 3) && pieces[2].matches("[0-9]+")) {
+                if (!pieces[2].matches("\\d{1,9}")) {
+                    reader.println(colorWrap(ANSI_RED, "ERROR: bad source command: " + input));
+                    reader.flush();
+                    return true;
+                }
+                window = Integer.parseInt(pieces[2]);
+                first = 3;
+            }
+        }
+        if (first + 1 > pieces.length) {
             reader.println(colorWrap(ANSI_RED, "ERROR: must supply filename"));
             reader.flush();
             return true;
         }
-        String file = pieces[1];
-        for (int i = 2; i < pieces.length; i++)
+        String file = pieces[first];
+        for (int i = first + 1; i < pieces.length; i++)
             file = file + " " + pieces[i];
         if (file.startsWith("'") && file.endsWith("'"))
             file = file.substring(1, file.length() - 1);
         if (file.startsWith("\"") && file.endsWith("\""))
             file = file.substring(1, file.length() - 1);
 
-        processScriptFile(file);
+        if (0 < window)
+            processScriptFileAsync(file, window);
+        else
+            processScriptFile(file);
+        return true;
+    }
+
+    public boolean handlePaging(String input, String[] pieces) throws IOException {
+        if (1 == pieces.length) {
+            if (Integer.MAX_VALUE == fetchSize)
+                reader.println(colorWrap(ANSI_YELLOW, "Paging is disabled"));
+            else
+                reader.println(colorWrap(ANSI_YELLOW, "Page size: " + fetchSize));
+            reader.flush();
+            return true;
+        }
+        if (2 != pieces.length) {
+            reader.println(colorWrap(ANSI_RED, "ERROR: bad paging command: " + input));
+            reader.flush();
+            return true;
+        }
+        if (pieces[1].equalsIgnoreCase("on")) {
+            fetchSize = DEFAULT_FETCH_SIZE;
+        }
+        else if (pieces[1].equalsIgnoreCase("off")) {
+            fetchSize = Integer.MAX_VALUE;
+        }
+        else {
+            int size;
+            try {
+                size = Integer.parseInt(pieces[1]);
+            }
+            catch (NumberFormatException nfe) {
+                size = 0;
+            }
+            if (0 >= size) {
+                reader.println(colorWrap(ANSI_RED, "ERROR: page size must be a positive integer: " + pieces[1]));
+                reader.flush();
+                return true;
+            }
+            fetchSize = size;
+        }
+        reader.println(colorWrap(ANSI_YELLOW, (Integer.MAX_VALUE == fetchSize) ? "Disabled paging" : "Page size: " + fetchSize));
+        reader.flush();
+        return true;
+    }
+
+    public boolean handlePager(String input, String[] pieces) throws IOException {
+        if (1 == pieces.length) {
+            reader.println(colorWrap(ANSI_YELLOW, (0 == pagerThreshold) ? "The pager is off" : "Results of more than " + pagerThreshold + " rows are paged"));
+        }
+        else if ((2 == pieces.length) && pieces[1].equalsIgnoreCase("on")) {
+            pagerThreshold = DEFAULT_PAGER_THRESHOLD;
+            reader.println(colorWrap(ANSI_YELLOW, "Results of more than " + pagerThreshold + " rows are paged"));
+        }
+        else if ((2 == pieces.length) && pieces[1].equalsIgnoreCase("off")) {
+            pagerThreshold = 0;
+            reader.println(colorWrap(ANSI_YELLOW, "Disabled the pager"));
+        }
+        else if ((2 == pieces.length) && pieces[1].matches("\\d{1,18}") && (0 < Long.parseLong(pieces[1]))) {
+            pagerThreshold = Long.parseLong(pieces[1]);
+            reader.println(colorWrap(ANSI_YELLOW, "Results of more than " + pagerThreshold + " rows are paged"));
+        }
+        else {
+            reader.println(colorWrap(ANSI_RED, "ERROR: bad pager command: " + input));
+        }
+        reader.flush();
+        return true;
+    }
+
+    public boolean handleCopy(String input, String[] pieces) throws IOException {
+        CopyCommand command = CopyCommand.parse(input, session.getLoggedKeyspace());
+        if (null == command) {
+            reader.println(colorWrap(ANSI_RED, "ERROR: bad copy command: " + input));
+            reader.flush();
+            return true;
+        }
+        reader.println(colorWrap(ANSI_YELLOW, " ==> " + input));
+        reader.flush();
+        if (command.from)
+            new CsvLoader(this, session, command).load();
+        else
+            new TableExporter(this, session, command).export();
+        return true;
+    }
+
+    public boolean handleBulkload(String input, String[] pieces) throws IOException {
+        CopyCommand command = CopyCommand.parse(input, session.getLoggedKeyspace());
+        if ((null == command) || !command.from) {
+            reader.println(colorWrap(ANSI_RED, "ERROR: bad bulkload command: " + input));
+            reader.flush();
+            return true;
+        }
+        reader.println(colorWrap(ANSI_YELLOW, " ==> " + input));
+        reader.flush();
+        new BulkLoader(this, session, command).load();
+        return true;
+    }
+
+    public boolean handleMetrics(String input, String[] pieces) throws IOException {
+        if (2 < pieces.length) {
+            reader.println(colorWrap(ANSI_RED, "ERROR: bad metrics command: " + input));
+            reader.flush();
+            return true;
+        }
+        reader.println(colorWrap(ANSI_YELLOW, metricsReporter.report((2 == pieces.length) ? pieces[1] : null)));
+        reader.flush();
+        return true;
+    }
+
+    public boolean handleCapture(String input, String[] pieces) throws IOException {
+        Matcher matcher = CAPTURE_PATTERN.matcher(input.trim());
+        if (1 == pieces.length) {
+            Capture capturing = capture;
+            reader.println(colorWrap(ANSI_YELLOW, (null == capturing) ? "Not capturing"
+                    : "Capturing to " + capturing.file + " as " + capturing.format.name().toLowerCase()));
+        }
+        else if ((2 == pieces.length) && pieces[1].equalsIgnoreCase("off")) {
+            Capture capturing = capture;
+            try {
+                closeCapture();
+                reader.println(colorWrap(ANSI_YELLOW, (null == capturing) ? "Not capturing" : "Stopped capturing to " + capturing.file));
+            }
+            catch (IOException ioe) {
+                reader.println(colorWrap(ANSI_RED, "ERROR: could not write " + capturing.file + ": " + ioe.getMessage()));
+            }
+        }
+        else if (matcher.matches()) {
+            File file = new File((null != matcher.group(1)) ? matcher.group(1) : matcher.group(2));
+            ResultWriter.Format captureFormat = (null == matcher.group(3)) ? ResultWriter.Format.TABLE : ResultWriter.Format.of(matcher.group(3));
+            if (null == captureFormat) {
+                reader.println(colorWrap(ANSI_RED, "ERROR: unknown capture format: " + matcher.group(3)));
+                reader.flush();
+                return true;
+            }
+            try {
+                closeCapture();
+                ProtocolVersion protocolVersion = session.getCluster().getConfiguration().getProtocolOptions().getProtocolVersion();
+                capture = Capture.open(file, captureFormat, codecRegistry, protocolVersion);
+                reader.println(colorWrap(ANSI_YELLOW, "Now capturing to " + file + " as " + captureFormat.name().toLowerCase()));
+            }
+            catch (IOException ioe) {
+                reader.println(colorWrap(ANSI_RED, "ERROR: could not capture to " + file + ": " + ioe.getMessage()));
+            }
+        }
+        else {
+            reader.println(colorWrap(ANSI_RED, "ERROR: bad capture command: " + input));
+        }
+        reader.flush();
+        return true;
+    }
+
+    public boolean handleTimeout(String input, String[] pieces) throws IOException {
+        if (1 == pieces.length) {
+            reader.println(colorWrap(ANSI_YELLOW, (0 == timeoutMs) ? "Timeout is the default (driver " + session.getCluster().getConfiguration().getSocketOptions().getReadTimeoutMillis()
+                    + " ms, node " + DatabaseDescriptor.getReadRpcTimeout() + " ms for reads)" : "Timeout is " + timeoutMs + " ms"));
+        }
+        else if ((2 == pieces.length) && pieces[1].equalsIgnoreCase("default")) {
+            if (null != nodeTimeoutsMs)
+                setNodeTimeouts(nodeTimeoutsMs[0], nodeTimeoutsMs[1], nodeTimeoutsMs[2]);
+            timeoutMs = 0;
+            reader.println(colorWrap(ANSI_YELLOW, "Timeout set to the default"));
+        }
+        else if ((2 == pieces.length) && pieces[1].matches("\\d{1,9}") && (0 < Integer.parseInt(pieces[1]))) {
+            if (null == nodeTimeoutsMs)
+                nodeTimeoutsMs = new long[] {DatabaseDescriptor.getReadRpcTimeout(), DatabaseDescriptor.getRangeRpcTimeout(), DatabaseDescriptor.getWriteRpcTimeout()};
+            timeoutMs = Integer.parseInt(pieces[1]);
+            setNodeTimeouts(timeoutMs, timeoutMs, timeoutMs);
+            reader.println(colorWrap(ANSI_YELLOW, "Timeout set to " + timeoutMs + " ms"));
+        }
+        else {
+            reader.println(colorWrap(ANSI_RED, "ERROR: bad timeout command: " + input));
+        }
+        reader.flush();
+        return true;
+    }
+
+    // the embedded node's own timeouts; the driver waits CLIENT_TIMEOUT_SLACK_MS longer, so that the node's error arrives first
+    private static void setNodeTimeouts(long readMs, long rangeMs, long writeMs) {
+        DatabaseDescriptor.setReadRpcTimeout(readMs);
+        DatabaseDescriptor.setRangeRpcTimeout(rangeMs);
+        DatabaseDescriptor.setWriteRpcTimeout(writeMs);
+    }
+
+    public boolean handleJobs(String input, String[] pieces) throws IOException {
+        if (1 == pieces.length) {
+            StringBuilder sb = new StringBuilder(" Background statements:\n");
+            synchronized (jobs) {
+                if (jobs.isEmpty())
+                    sb.append("   none\n");
+                for (Iterator<StatementJob> it = jobs.values().iterator(); it.hasNext(); ) {
+                    StatementJob job = it.next();
+                    sb.append("   [").append(job.id).append("] ").append(describe(job)).append('\n');
+                    if (job.isDone())
+                        it.remove();
+                }
+            }
+            reader.println(colorWrap(ANSI_YELLOW, sb.toString()));
+        }
+        else if ((3 == pieces.length) && pieces[1].equalsIgnoreCase("cancel") && pieces[2].matches("\\d{1,9}")) {
+            StatementJob job;
+            synchronized (jobs) {
+                job = jobs.get(Integer.parseInt(pieces[2]));
+            }
+            if ((null == job) || job.isDone()) {
+                reader.println(colorWrap(ANSI_RED, "ERROR: no running statement [" + pieces[2] + "]"));
+            }
+            else {
+                job.cancel();
+                reader.println(colorWrap(ANSI_YELLOW, "Cancelling [" + job.id + "]"));
+            }
+        }
+        else {
+            reader.println(colorWrap(ANSI_RED, "ERROR: bad jobs command: " + input));
+        }
+        reader.flush();
+        return true;
+    }
+
+    public boolean handleTracing(String input, String[] pieces) throws IOException {
+        if (1 == pieces.length) {
+            reader.println(colorWrap(ANSI_YELLOW, "Tracing is " + (tracing ? "on" : "off")));
+        }
+        else if ((2 == pieces.length) && pieces[1].equalsIgnoreCase("on")) {
+            tracing = true;
+            reader.println(colorWrap(ANSI_YELLOW, "Now tracing requests"));
+        }
+        else if ((2 == pieces.length) && pieces[1].equalsIgnoreCase("off")) {
+            tracing = false;
+            reader.println(colorWrap(ANSI_YELLOW, "Disabled tracing"));
+        }
+        else {
+            reader.println(colorWrap(ANSI_RED, "ERROR: bad tracing command: " + input));
+        }
+        reader.flush();
+        return true;
+    }
+
+    public boolean handleBench(String input, String[] pieces) throws IOException {
+        BenchCommand command = BenchCommand.parse(input, BenchRunner.DEFAULT_MAX_IN_FLIGHT);
+        if (null == command) {
+            reader.println(colorWrap(ANSI_RED, "ERROR: bad bench command: " + input));
+            reader.flush();
+            return true;
+        }
+        reader.println(colorWrap(ANSI_YELLOW, " ==> " + input));
+        reader.flush();
+        new BenchRunner(this, session, command).run();
+        return true;
+    }
+
+    public boolean handleGenerate(String input, String[] pieces) throws IOException {
+        GenerateCommand command = GenerateCommand.parse(input, session.getLoggedKeyspace());
+        if (null == command) {
+            reader.println(colorWrap(ANSI_RED, "ERROR: bad generate command: " + input));
+            reader.flush();
+            return true;
+        }
+        reader.println(colorWrap(ANSI_YELLOW, " ==> " + input));
+        reader.flush();
+        new DataGenerator(this, session, command).generate();
+        return true;
+    }
+
+    public boolean handleFixture(String input, String[] pieces) throws IOException {
+        if (3 != pieces.length) {
+            reader.println(colorWrap(ANSI_RED, "ERROR: bad fixture command: " + input));
+            reader.flush();
+            return true;
+        }
+        reader.println(colorWrap(ANSI_YELLOW, " ==> " + input));
+        reader.flush();
+        if (pieces[0].equalsIgnoreCase("save"))
+            new Fixtures(this, session).save(pieces[2]);
+        else
+            new Fixtures(this, session).load(pieces[2]);
+        return true;
+    }
+
+    public boolean handleStats(String input, String[] pieces) throws IOException {
+        if (1 == pieces.length) {
+            reader.println(colorWrap(ANSI_YELLOW, statementStats.report()));
+            reader.flush();
+            return true;
+        }
+        if ((2 == pieces.length) && pieces[1].equalsIgnoreCase("reset")) {
+            statementStats.reset();
+            reader.println(colorWrap(ANSI_YELLOW, "Statement latency histograms reset"));
+            reader.flush();
+            return true;
+        }
+        if ((3 <= pieces.length) && pieces[1].equalsIgnoreCase("export")) {
+            String file = input.trim().substring(input.trim().indexOf(pieces[2])).trim();
+            if ((2 <= file.length()) && (file.startsWith("'") && file.endsWith("'")))
+                file = file.substring(1, file.length() - 1);
+            try {
+                int written = statementStats.export(new File(file));
+                reader.println(colorWrap(ANSI_YELLOW, "Exported " + written + " histograms to " + file));
+            }
+            catch (IOException ioe) {
+                reader.println(colorWrap(ANSI_RED, "ERROR: could not export to " + file + ": " + ioe.getMessage()));
+            }
+            reader.flush();
+            return true;
+        }
+        if ((2 == pieces.length) && pieces[1].equalsIgnoreCase("prepared")) {
+            long hits = preparedCache.getHits();
+            long misses = preparedCache.getMisses();
+            long lookups = hits + misses;
+            String stats = " Prepared statement cache:\n" +
+                    "   Entries: " + preparedCache.size() + " of " + preparedCache.getCapacity() + "\n" +
+                    "   Hits: " + hits + "\n" +
+                    "   Misses: " + misses + "\n" +
+                    "   Hit rate: " + ((0 == lookups) ? "n/a" : String.format("%.1f%%", 100.0 * hits / lookups)) + "\n" +
+                    "   Not prepared: " + preparedCache.getBypassed() + "\n";
+            reader.println(colorWrap(ANSI_YELLOW, stats));
+            reader.flush();
+            return true;
+        }
+        reader.println(colorWrap(ANSI_RED, "ERROR: bad stats command: " + input));
+        reader.flush();
         return true;
     }
-}
\ No newline at end of file
+}
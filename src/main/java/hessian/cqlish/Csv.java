@@ -0,0 +1,46 @@
+package hessian.cqlish;
+
+/**
+ * CSV quoting shared by COPY FROM and COPY TO.
+ */
+public class Csv {
+    /**
+     * Appends value as one CSV field, quoting it if it contains the
+     * delimiter, the quote character or a line break.  A null value is
+     * written as nullValue.
+     */
+    public static void appendField(StringBuilder sb, CharSequence value, char delimiter, char quote, String nullValue) {
+        if (null == value) {
+            sb.append(nullValue);
+            return;
+        }
+        int length = value.length();
+        boolean needsQuotes = (0 == length) && nullValue.isEmpty();
+        for (int i = 0; (i < length) && !needsQuotes; i++) {
+            char c = value.charAt(i);
+            needsQuotes = (c == delimiter) || (c == quote) || ('\n' == c) || ('\r' == c);
+        }
+        if (!needsQuotes) {
+            sb.append(value);
+            return;
+        }
+        sb.append(quote);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == quote)
+                sb.append(quote);
+            sb.append(c);
+        }
+        sb.append(quote);
+    }
+
+    public static String toLine(String[] fields, char delimiter, char quote, String nullValue) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (0 != i)
+                sb.append(delimiter);
+            appendField(sb, fields[i], delimiter, quote, nullValue);
+        }
+        return sb.toString();
+    }
+}
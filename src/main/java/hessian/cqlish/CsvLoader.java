@@ -0,0 +1,417 @@
+package hessian.cqlish;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ColumnMetadata;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TableMetadata;
+import com.datastax.driver.core.TypeCodec;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.datastax.driver.core.exceptions.InvalidTypeException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * COPY ... FROM: loads a CSV file into a table.
+ * The file is memory-mapped and split into chunks on record boundaries by
+ * the calling thread; the chunks are parsed in parallel on a worker pool and
+ * each row is bound to a prepared INSERT and written through a
+ * PipelinedExecutor.  Rows that cannot be parsed or written are reported
+ * with their line number and written to the rejected-rows file.
+ *
+ * Quotes inside quoted fields are escaped by doubling them.  Subclasses
+ * (see BulkLoader) can replace where the parsed rows go.
+ */
+public class CsvLoader {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+    public static final int MAX_PRINTED_ERRORS = 10;
+    private static final int SCAN_WINDOW = 64 << 20;
+
+    private static class Reject {
+        final long line;
+        final String[] fields;
+        final String message;
+
+        Reject(long line, String[] fields, String message) {
+            this.line = line;
+            this.fields = fields;
+            this.message = message;
+        }
+    }
+
+    protected final CqlishApplication app;
+    protected final Session session;
+    protected final CopyCommand command;
+    private final char delimiter;
+    private final char quote;
+    private final String nullValue;
+    private final boolean header;
+    protected final int workers;
+    private final int maxInFlight;
+    private final String errFile;
+
+    private PreparedStatement insert;
+    private FieldParser[] parsers;
+    private PipelinedExecutor executor;
+    private final Queue<Reject> rejects = new ConcurrentLinkedQueue<Reject>();
+    private long rejected = 0;
+    private Writer errWriter;
+
+    public CsvLoader(CqlishApplication app, Session session, CopyCommand command) {
+        this.app = app;
+        this.session = session;
+        this.command = command;
+        this.delimiter = command.charOption("DELIMITER", ',');
+        this.quote = command.charOption("QUOTE", '"');
+        this.nullValue = command.option("NULL", "");
+        this.header = command.booleanOption("HEADER", false);
+        this.workers = Math.max(1, command.intOption("NUMPROCESSES", Runtime.getRuntime().availableProcessors()));
+        this.maxInFlight = Math.max(1, command.intOption("MAXINFLIGHT", DEFAULT_MAX_IN_FLIGHT));
+        this.errFile = command.option("ERRFILE", "import_" + command.keyspace + "_" + command.table + ".err");
+    }
+
+    /**
+     * Loads the file, printing progress as it goes.  Returns false if the
+     * load could not be started.
+     */
+    public boolean load() throws IOException {
+        File infile = new File(command.file);
+        if (!infile.isFile()) {
+            app.println(CqlishApplication.ANSI_RED, "ERROR: Could not find file " + command.file);
+            return false;
+        }
+        if (!prepare())
+            return false;
+
+        app.println(CqlishApplication.ANSI_YELLOW, "Importing " + command.file + " into " + command.qualifiedTable()
+                + " with " + workers + " workers:");
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        Semaphore chunkPermits = new Semaphore(2 * workers);
+        long begin = System.currentTimeMillis();
+        long nextProgress = begin + CqlishApplication.PROGRESS_INTERVAL_MS;
+        try (FileChannel channel = FileChannel.open(infile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long chunkStart = 0;
+            long chunkLine = 1;
+            long line = 1;
+            boolean inQuotes = false;
+            for (long windowStart = 0; windowStart < size; windowStart += SCAN_WINDOW) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(SCAN_WINDOW, size - windowStart));
+                for (int i = 0; i < window.limit(); i++) {
+                    byte b = window.get(i);
+                    if (quote == b) {
+                        inQuotes = !inQuotes;
+                    }
+                    else if ('\n' == b) {
+                        line++;
+                        long end = windowStart + i + 1;
+                        if (!inQuotes && (end - chunkStart >= DEFAULT_CHUNK_SIZE)) {
+                            submit(pool, chunkPermits, channel, chunkStart, end, chunkLine);
+                            chunkStart = end;
+                            chunkLine = line;
+                            nextProgress = progress(begin, nextProgress);
+                        }
+                    }
+                }
+            }
+            if (chunkStart < size)
+                submit(pool, chunkPermits, channel, chunkStart, size, chunkLine);
+
+            pool.shutdown();
+            while (!pool.awaitTermination(100, TimeUnit.MILLISECONDS))
+                nextProgress = progress(begin, nextProgress);
+            finish();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            app.println(CqlishApplication.ANSI_RED, "ERROR: interrupted importing " + command.file);
+        }
+        finally {
+            pool.shutdownNow();
+            writeRejects();
+            if (null != errWriter)
+                errWriter.close();
+        }
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - begin);
+        long imported = loaded();
+        app.println(CqlishApplication.ANSI_YELLOW, String.format("Imported %d rows into %s in %d ms (%.0f rows/sec), %d rejected",
+                imported, command.qualifiedTable(), elapsed, imported * 1000.0 / elapsed, rejected));
+        if (0 < rejected)
+            app.println(CqlishApplication.ANSI_YELLOW, "Rejected rows were written to " + errFile);
+        return true;
+    }
+
+    /**
+     * Prepares the target of the load.  Called once before any row is loaded.
+     */
+    protected boolean prepare() throws IOException {
+        TableMetadata tm = tableMetadata();
+        if (null == tm)
+            return false;
+
+        String cql = insertStatement(command.qualifiedTable(), columns(tm));
+        try {
+            insert = session.prepare(cql);
+        }
+        catch (DriverException de) {
+            app.println(CqlishApplication.ANSI_RED, "ERROR: could not prepare " + cql + ": " + de.getMessage());
+            return false;
+        }
+
+        CodecRegistry codecRegistry = session.getCluster().getConfiguration().getCodecRegistry();
+        ColumnDefinitions variables = insert.getVariables();
+        parsers = new FieldParser[variables.size()];
+        for (int i = 0; i < parsers.length; i++)
+            parsers[i] = new FieldParser(variables.getType(i), codecRegistry);
+        executor = new PipelinedExecutor(session, maxInFlight);
+        return true;
+    }
+
+    protected TableMetadata tableMetadata() throws IOException {
+        KeyspaceMetadata km = session.getCluster().getMetadata().getKeyspace(command.keyspace);
+        TableMetadata tm = (null == km) ? null : km.getTable(command.table);
+        if (null == tm)
+            app.println(CqlishApplication.ANSI_RED, "ERROR: table (" + command.qualifiedTable() + ") not found");
+        return tm;
+    }
+
+    // the columns named in the command, or all columns of the table
+    protected List<String> columns(TableMetadata tm) {
+        List<String> columns = new ArrayList<String>(command.columns);
+        if (columns.isEmpty()) {
+            for (ColumnMetadata cm : tm.getColumns())
+                columns.add(Metadata.quoteIfNecessary(cm.getName()));
+        }
+        return columns;
+    }
+
+    protected static String insertStatement(String qualifiedTable, List<String> columns) {
+        StringBuilder cql = new StringBuilder("INSERT INTO " + qualifiedTable + " (");
+        StringBuilder markers = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            cql.append((0 == i) ? "" : ", ").append(columns.get(i));
+            markers.append((0 == i) ? "?" : ", ?");
+        }
+        return cql.append(") VALUES (").append(markers).append(")").toString();
+    }
+
+    private void submit(ExecutorService pool, final Semaphore chunkPermits, final FileChannel channel,
+                        final long start, final long end, final long firstLine) throws InterruptedException, IOException {
+        chunkPermits.acquire();
+        pool.execute(() -> {
+            try {
+                loadChunk(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), firstLine, header && (0 == start));
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            catch (IOException | RuntimeException e) {
+                rejects.add(new Reject(firstLine, null, "could not load chunk: " + e.getMessage()));
+            }
+            finally {
+                chunkPermits.release();
+            }
+        });
+    }
+
+    private void loadChunk(MappedByteBuffer chunk, long firstLine, boolean skipFirst) throws InterruptedException {
+        List<String> fields = new ArrayList<String>();
+        byte[] field = new byte[256];
+        int fieldLength = 0;
+        boolean inQuotes = false;
+        boolean quoted = false;
+        boolean skip = skipFirst;
+        long line = firstLine;
+        long recordLine = firstLine;
+        int limit = chunk.limit();
+        for (int i = 0; i <= limit; i++) {
+            byte b = (i < limit) ? chunk.get(i) : (byte)'\n';
+            if (inQuotes) {
+                if (quote == b) {
+                    if ((i + 1 < limit) && (quote == chunk.get(i + 1))) {
+                        i++;
+                    }
+                    else {
+                        inQuotes = false;
+                        continue;
+                    }
+                }
+                else if ('\n' == b) {
+                    line++;
+                }
+            }
+            else if ((quote == b) && (0 == fieldLength)) {
+                inQuotes = true;
+                quoted = true;
+                continue;
+            }
+            else if ((delimiter == b) || ('\n' == b)) {
+                String value = new String(field, 0, fieldLength, StandardCharsets.UTF_8);
+                fields.add((!quoted && value.equals(nullValue)) ? null : value);
+                fieldLength = 0;
+                quoted = false;
+                if ('\n' == b) {
+                    boolean blank = (1 == fields.size()) && ((null == fields.get(0)) || fields.get(0).isEmpty());
+                    if (!blank) {
+                        if (!skip)
+                            loadRow(fields.toArray(new String[fields.size()]), recordLine);
+                        skip = false;
+                    }
+                    fields.clear();
+                    line++;
+                    recordLine = line;
+                }
+                continue;
+            }
+            else if (('\r' == b) && (i + 1 < limit) && ('\n' == chunk.get(i + 1))) {
+                continue;
+            }
+            if (fieldLength == field.length)
+                field = Arrays.copyOf(field, 2 * field.length);
+            field[fieldLength++] = b;
+        }
+        if (inQuotes)
+            rejects.add(new Reject(recordLine, null, "unterminated quoted field"));
+    }
+
+    /**
+     * Loads one record.  Called concurrently from the worker threads.
+     */
+    protected void loadRow(String[] fields, long line) throws InterruptedException {
+        if (fields.length != parsers.length) {
+            reject(line, fields, "expected " + parsers.length + " fields but found " + fields.length);
+            return;
+        }
+        BoundStatement bound = insert.bind();
+        for (int i = 0; i < fields.length; i++) {
+            try {
+                parsers[i].bind(bound, i, fields[i]);
+            }
+            catch (InvalidTypeException ite) {
+                reject(line, fields, ite.getMessage());
+                return;
+            }
+        }
+        executor.execute(bound, line, fields);
+    }
+
+    /**
+     * Called once all records have been handed to loadRow.
+     */
+    protected void finish() throws InterruptedException, IOException {
+        executor.drain();
+    }
+
+    // rows loaded so far
+    protected long loaded() {
+        return executor.getSucceeded();
+    }
+
+    protected void reject(long line, String[] fields, String message) {
+        rejects.add(new Reject(line, fields, message));
+    }
+
+    private long progress(long begin, long nextProgress) throws IOException {
+        writeRejects();
+        long now = System.currentTimeMillis();
+        if (now < nextProgress)
+            return nextProgress;
+        long imported = loaded();
+        app.println(CqlishApplication.ANSI_YELLOW, String.format("  %d rows imported, %.0f rows/sec, %d rejected",
+                imported, imported * 1000.0 / Math.max(1, now - begin), rejected));
+        return now + CqlishApplication.PROGRESS_INTERVAL_MS;
+    }
+
+    private void writeRejects() throws IOException {
+        Reject reject;
+        while (null != (reject = rejects.poll()))
+            reject(reject);
+        PipelinedExecutor.Failure failure;
+        while ((null != executor) && (null != (failure = executor.pollFailure())))
+            reject(new Reject(failure.tag, (String[])failure.context, failure.error.getMessage()));
+    }
+
+    private void reject(Reject reject) throws IOException {
+        rejected++;
+        if (MAX_PRINTED_ERRORS >= rejected)
+            app.println(CqlishApplication.ANSI_RED, "ERROR: " + command.file + ":" + reject.line + ": " + reject.message);
+        if (MAX_PRINTED_ERRORS == rejected)
+            app.println(CqlishApplication.ANSI_RED, "  further errors are only written to " + errFile);
+        if (null == reject.fields)
+            return;
+        if (null == errWriter)
+            errWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(errFile), StandardCharsets.UTF_8));
+        errWriter.write(Csv.toLine(reject.fields, delimiter, quote, nullValue));
+        errWriter.write('\n');
+    }
+
+    /**
+     * Parses one CSV field.  Text types are taken as is; other types are
+     * parsed as CQL literals, quoting the field if it does not parse bare
+     * (so that dates, times and inet addresses need no quotes in the file).
+     */
+    protected static class FieldParser {
+        private final TypeCodec<Object> codec;
+        private final boolean text;
+
+        FieldParser(DataType type, CodecRegistry codecRegistry) {
+            this.codec = codecRegistry.codecFor(type);
+            DataType.Name name = type.getName();
+            this.text = (DataType.Name.TEXT == name) || (DataType.Name.VARCHAR == name) || (DataType.Name.ASCII == name);
+        }
+
+        Object parse(String field) {
+            if (text)
+                return field;
+            try {
+                return codec.parse(field);
+            }
+            catch (InvalidTypeException ite) {
+                try {
+                    return codec.parse("'" + field.replace("'", "''") + "'");
+                }
+                catch (InvalidTypeException quotedIte) {
+                    throw ite;
+                }
+            }
+        }
+
+        ByteBuffer serialize(String field, ProtocolVersion protocolVersion) {
+            return (null == field) ? null : codec.serialize(parse(field), protocolVersion);
+        }
+
+        void bind(BoundStatement bound, int i, String field) {
+            if (null == field)
+                bound.setToNull(i);
+            else
+                bound.set(i, parse(field), codec);
+        }
+    }
+}
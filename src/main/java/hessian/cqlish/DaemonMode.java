@@ -0,0 +1,313 @@
+package hessian.cqlish;
+
+import jline.UnsupportedTerminal;
+import jline.console.ConsoleReader;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * -daemon: keeps the embedded node and the session running and takes
+ * statements from other cqlish processes over a loopback socket, so that
+ * each of those skips starting Cassandra.  The daemon writes its port and a
+ * random token to ~/.cqlish/daemon (readable only by the user); a client
+ * must send the token first.
+ *
+ * A request is the token and then lines of "-f &lt;script file&gt;" or
+ * "-e &lt;statement&gt;", optionally after "-format &lt;format&gt;", or
+ * the single line "stop".  The reply is frames of a type byte and an int:
+ * OUTPUT (or, with -format, ERROR for everything but the results) and the
+ * length of the bytes that follow, then EXIT and the exit status.
+ * Requests are served one at a time, by the same session, so USE carries
+ * over from one to the next.
+ */
+public class DaemonMode {
+    public static final File INFO_FILE = new File(System.getProperty("user.home"), ".cqlish" + File.separator + "daemon");
+    public static final String SOURCE = "-f";
+    public static final String EXECUTE = "-e";
+    public static final String FORMAT = "-format";
+    public static final String STOP = "stop";
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+    private static final int FRAME_SIZE = 1 << 16;
+    private static final byte OUTPUT = 'O';
+    private static final byte ERROR = 'E';
+    private static final byte EXIT = 'X';
+
+    /**
+     * Serves requests on port (any free one if 0) until a client asks the
+     * daemon to stop.
+     */
+    public static boolean serve(CqlishApplication app, int port) throws IOException {
+        if (null != connect()) {
+            app.println(CqlishApplication.ANSI_RED, "ERROR: a daemon is already running (see " + INFO_FILE + ")");
+            return false;
+        }
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : bytes)
+            token.append(String.format("%02x", b));
+
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            writeInfo(server.getLocalPort(), token.toString());
+            app.println(CqlishApplication.ANSI_GREEN, "Daemon listening on " + server.getInetAddress().getHostAddress() + ":" + server.getLocalPort()
+                    + "; run cqlish -e \"<cql>\" or -f <file> to use it, cqlish -daemon stop to stop it");
+            try {
+                boolean serving = true;
+                while (serving) {
+                    try (Socket socket = server.accept()) {
+                        serving = handle(app, socket, token.toString());
+                    }
+                    catch (IOException ioe) {
+                        // the client went away; serve the next one
+                    }
+                }
+            }
+            finally {
+                Files.deleteIfExists(INFO_FILE.toPath());
+            }
+        }
+        return true;
+    }
+
+    // serves one request; returns false if it asked the daemon to stop
+    private static boolean handle(CqlishApplication app, Socket socket, String token) throws IOException {
+        socket.setTcpNoDelay(true);
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), FRAME_SIZE));
+        if (!token.equals(in.readLine())) {
+            exit(out, 1);
+            return true;
+        }
+        List<String> requests = new ArrayList<String>();
+        String line;
+        while (null != (line = in.readLine()))
+            requests.add(line);
+        if ((1 == requests.size()) && STOP.equals(requests.get(0))) {
+            exit(out, 0);
+            return false;
+        }
+
+        boolean batch = false;
+        for (String request : requests)
+            batch |= request.startsWith(FORMAT + " ");
+        FrameOutputStream frames = new FrameOutputStream(out, OUTPUT);
+        FrameOutputStream messages = batch ? new FrameOutputStream(out, ERROR) : frames;
+        ConsoleReader reader = new ConsoleReader(new ByteArrayInputStream(new byte[0]), messages, new UnsupportedTerminal());
+        ChannelWriter results = new ChannelWriter(Channels.newChannel(frames), FRAME_SIZE);
+        boolean success = app.serve(reader, results, requests);
+        reader.flush();
+        results.flush();
+        messages.flush();
+        frames.flush();
+        exit(out, success ? 0 : 1);
+        return true;
+    }
+
+    private static void exit(DataOutputStream out, int status) throws IOException {
+        out.writeByte(EXIT);
+        out.writeInt(status);
+        out.flush();
+    }
+
+    /**
+     * Runs scriptFile and statements (either may be null) on the running
+     * daemon, copying its output to out.  With a format, only the results
+     * go to out and everything else to err.  Returns whether they
+     * succeeded, or null if no daemon is running.
+     */
+    public static Boolean forward(String scriptFile, String statements, ResultWriter.Format format, PrintStream out, PrintStream err) throws IOException {
+        List<String> requests = new ArrayList<String>();
+        if (null != format)
+            requests.add(FORMAT + " " + format.name().toLowerCase());
+        if (null != scriptFile)
+            requests.add(SOURCE + " " + new File(scriptFile).getAbsolutePath());
+        if (null != statements) {
+            for (String statement : StatementBuffer.split(statements))
+                requests.add(EXECUTE + " " + statement);
+        }
+        return send(requests, out, err);
+    }
+
+    /**
+     * Whether a daemon is running.
+     */
+    public static boolean isRunning() throws IOException {
+        Socket socket = connect();
+        if (null == socket)
+            return false;
+        socket.close();
+        return true;
+    }
+
+    /**
+     * Asks the running daemon to stop.
+     */
+    public static boolean stop(PrintStream out) throws IOException {
+        List<String> requests = new ArrayList<String>();
+        requests.add(STOP);
+        Boolean stopped = send(requests, out, out);
+        out.println((null == stopped) ? "No daemon is running" : stopped ? "Daemon stopped" : "The daemon did not stop");
+        return Boolean.TRUE.equals(stopped);
+    }
+
+    private static Boolean send(List<String> requests, PrintStream out, PrintStream err) throws IOException {
+        Properties info = readInfo();
+        Socket socket = connect();
+        if (null == socket)
+            return null;
+        try {
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            writer.write(info.getProperty("token") + "\n");
+            for (String request : requests)
+                writer.write(request + "\n");
+            writer.flush();
+            socket.shutdownOutput();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] buffer = new byte[FRAME_SIZE];
+            while (true) {
+                byte type = in.readByte();
+                int n = in.readInt();
+                if (EXIT == type) {
+                    out.flush();
+                    err.flush();
+                    return 0 == n;
+                }
+                if (((OUTPUT != type) && (ERROR != type)) || (0 > n) || (buffer.length < n))
+                    throw new IOException("bad reply from the daemon");
+                in.readFully(buffer, 0, n);
+                if (ERROR == type) {
+                    out.flush();
+                    err.write(buffer, 0, n);
+                    err.flush();
+                }
+                else {
+                    out.write(buffer, 0, n);
+                }
+            }
+        }
+        catch (EOFException eofe) {
+            err.println("ERROR: the daemon closed the connection");
+            return false;
+        }
+        finally {
+            socket.close();
+        }
+    }
+
+    // a connection to the running daemon, or null if there is none
+    private static Socket connect() throws IOException {
+        Properties info = readInfo();
+        if (null == info)
+            return null;
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(info.getProperty("port", "0"))), CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+        catch (IOException | IllegalArgumentException e) {
+            // the daemon is gone without cleaning up
+            socket.close();
+            Files.deleteIfExists(INFO_FILE.toPath());
+            return null;
+        }
+    }
+
+    private static Properties readInfo() throws IOException {
+        if (!INFO_FILE.isFile())
+            return null;
+        Properties info = new Properties();
+        try (FileInputStream in = new FileInputStream(INFO_FILE)) {
+            info.load(in);
+        }
+        return info;
+    }
+
+    private static void writeInfo(int port, String token) throws IOException {
+        Path path = INFO_FILE.toPath();
+        Files.createDirectories(path.getParent());
+        Files.deleteIfExists(path);
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        catch (UnsupportedOperationException uoe) {
+            Files.createFile(path);
+        }
+        Files.write(path, ("port=" + port + "\ntoken=" + token + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    // sends what is written as frames of type, at most FRAME_SIZE bytes each
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte type;
+        private final byte[] buffer = new byte[FRAME_SIZE];
+        private int count = 0;
+
+        FrameOutputStream(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (buffer.length == count)
+                writeFrame();
+            buffer[count++] = (byte)b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (0 < length) {
+                if (buffer.length == count)
+                    writeFrame();
+                int n = Math.min(length, buffer.length - count);
+                System.arraycopy(bytes, offset, buffer, count, n);
+                count += n;
+                offset += n;
+                length -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeFrame();
+            out.flush();
+        }
+
+        private void writeFrame() throws IOException {
+            if (0 == count)
+                return;
+            out.writeByte(type);
+            out.writeInt(count);
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
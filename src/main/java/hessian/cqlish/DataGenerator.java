@@ -0,0 +1,215 @@
+package hessian.cqlish;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnMetadata;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TableMetadata;
+import com.datastax.driver.core.exceptions.DriverException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GENERATE: fills a table with synthetic rows.  Values come from a
+ * ValueGenerator chosen by each column's type, seeded from the command's
+ * seed and the column's position, so the same seed always writes the same
+ * rows.  Row i goes to partition i / r as clustering row i % r (r rows per
+ * partition); partition key columns are generated from the partition
+ * number, clustering columns from the clustering number and the other
+ * columns from the row number.  Integer keys count up from 0; other
+ * integer columns are random.  Columns with no generator (collections,
+ * user types, ...) are left out.
+ *
+ * The rows are split into one range per worker; the workers bind prepared
+ * INSERTs and send them through a shared PipelinedExecutor.
+ */
+public class DataGenerator {
+    public static final int MAX_PRINTED_ERRORS = 10;
+
+    private enum Source { PARTITION, CLUSTERING, ROW }
+
+    private final CqlishApplication app;
+    private final Session session;
+    private final GenerateCommand command;
+    private final int workers = Runtime.getRuntime().availableProcessors();
+    private final Queue<String> errors = new ConcurrentLinkedQueue<String>();
+
+    private PreparedStatement insert;
+    private ValueGenerator[] generators;
+    private DataType[] types;
+    private Source[] sources;
+    private PipelinedExecutor executor;
+    private long failed = 0;
+
+    public DataGenerator(CqlishApplication app, Session session, GenerateCommand command) {
+        this.app = app;
+        this.session = session;
+        this.command = command;
+    }
+
+    public boolean generate() throws IOException {
+        KeyspaceMetadata km = session.getCluster().getMetadata().getKeyspace(command.keyspace);
+        TableMetadata tm = (null == km) ? null : km.getTable(command.table);
+        if (null == tm) {
+            app.println(CqlishApplication.ANSI_RED, "ERROR: table (" + command.qualifiedTable() + ") not found");
+            return false;
+        }
+
+        long rowsPerPartition = command.rowsPerPartition;
+        if (0 == rowsPerPartition)
+            rowsPerPartition = (0 == command.partitions) ? 1 : (command.rows + command.partitions - 1) / command.partitions;
+        if ((0 < command.partitions) && (command.rows > command.partitions * rowsPerPartition)) {
+            app.println(CqlishApplication.ANSI_RED, String.format("ERROR: %d rows do not fit in %d partitions of %d rows",
+                    command.rows, command.partitions, rowsPerPartition));
+            return false;
+        }
+        if ((1 < rowsPerPartition) && tm.getClusteringColumns().isEmpty()) {
+            app.println(CqlishApplication.ANSI_RED, "ERROR: " + command.qualifiedTable()
+                    + " has no clustering columns, so a partition holds only one row");
+            return false;
+        }
+        if (!prepare(tm))
+            return false;
+
+        long partitions = (command.rows + rowsPerPartition - 1) / rowsPerPartition;
+        app.println(CqlishApplication.ANSI_YELLOW, String.format("Generating %d rows (%d partitions of up to %d rows) into %s with seed %d and %d workers:",
+                command.rows, partitions, rowsPerPartition, command.qualifiedTable(), command.seed, workers));
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        long begin = System.currentTimeMillis();
+        long nextProgress = begin + CqlishApplication.PROGRESS_INTERVAL_MS;
+        try {
+            for (int w = 0; w < workers; w++) {
+                final long from = command.rows * w / workers;
+                final long to = command.rows * (w + 1) / workers;
+                final long r = rowsPerPartition;
+                pool.execute(() -> {
+                    try {
+                        generateRange(from, to, r);
+                    }
+                    catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                    catch (RuntimeException re) {
+                        errors.add("rows " + from + " to " + to + ": " + re.getMessage());
+                    }
+                });
+            }
+            pool.shutdown();
+            while (!pool.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+                printErrors();
+                long now = System.currentTimeMillis();
+                if (now >= nextProgress) {
+                    long written = executor.getSucceeded();
+                    app.println(CqlishApplication.ANSI_YELLOW, String.format("  %d rows written (%d%%), %.0f rows/sec, %d errors",
+                            written, 100 * executor.getCompleted() / command.rows, written * 1000.0 / (now - begin), failed));
+                    nextProgress = now + CqlishApplication.PROGRESS_INTERVAL_MS;
+                }
+            }
+            executor.drain();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            app.println(CqlishApplication.ANSI_RED, "ERROR: interrupted generating rows into " + command.qualifiedTable());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        printErrors();
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - begin);
+        long written = executor.getSucceeded();
+        app.println(CqlishApplication.ANSI_YELLOW, String.format("Generated %d rows into %s in %d ms (%.0f rows/sec), %d errors",
+                written, command.qualifiedTable(), elapsed, written * 1000.0 / elapsed, failed));
+        return true;
+    }
+
+    private boolean prepare(TableMetadata tm) throws IOException {
+        List<String> columns = new ArrayList<String>();
+        List<ValueGenerator> generators = new ArrayList<ValueGenerator>();
+        List<DataType> types = new ArrayList<DataType>();
+        List<Source> sources = new ArrayList<Source>();
+        List<String> skipped = new ArrayList<String>();
+        List<ColumnMetadata> all = tm.getColumns();
+        for (int c = 0; c < all.size(); c++) {
+            ColumnMetadata cm = all.get(c);
+            ValueGenerator generator = ValueGenerator.forType(cm.getType(), columnSeed(c));
+            boolean partitionKey = tm.getPartitionKey().contains(cm);
+            boolean clustering = tm.getClusteringColumns().contains(cm);
+            if (null == generator) {
+                if (partitionKey || clustering) {
+                    app.println(CqlishApplication.ANSI_RED, "ERROR: cannot generate values for key column " + cm.getName() + " (" + cm.getType() + ")");
+                    return false;
+                }
+                skipped.add(cm.getName());
+                continue;
+            }
+            if (!partitionKey && !clustering && generator.toString().equals("seq"))
+                generator = ValueGenerator.randomInt(columnSeed(c), 0);  // keys count up; other numbers need not
+            columns.add(Metadata.quoteIfNecessary(cm.getName()));
+            generators.add(generator);
+            types.add(cm.getType());
+            sources.add(partitionKey ? Source.PARTITION : (clustering ? Source.CLUSTERING : Source.ROW));
+        }
+        if (!skipped.isEmpty())
+            app.println(CqlishApplication.ANSI_YELLOW, "  not generating values for " + String.join(", ", skipped));
+
+        String cql = CsvLoader.insertStatement(command.qualifiedTable(), columns);
+        try {
+            insert = session.prepare(cql);
+        }
+        catch (DriverException de) {
+            app.println(CqlishApplication.ANSI_RED, "ERROR: could not prepare " + cql + ": " + de.getMessage());
+            return false;
+        }
+        this.generators = generators.toArray(new ValueGenerator[generators.size()]);
+        this.types = types.toArray(new DataType[types.size()]);
+        this.sources = sources.toArray(new Source[sources.size()]);
+        executor = new PipelinedExecutor(session, CsvLoader.DEFAULT_MAX_IN_FLIGHT);
+        return true;
+    }
+
+    // each column gets its own stream of values
+    private long columnSeed(int column) {
+        return command.seed * 0x9E3779B97F4A7C15L + column * 0xC2B2AE3D27D4EB4FL;
+    }
+
+    private void generateRange(long from, long to, long rowsPerPartition) throws InterruptedException {
+        CodecRegistry codecRegistry = session.getCluster().getConfiguration().getCodecRegistry();
+        for (long row = from; row < to; row++) {
+            BoundStatement bound = insert.bind();
+            for (int c = 0; c < generators.length; c++) {
+                long iteration = (Source.PARTITION == sources[c]) ? row / rowsPerPartition
+                        : ((Source.CLUSTERING == sources[c]) ? row % rowsPerPartition : row);
+                Object value = ValueGenerator.convert(generators[c].next(iteration), types[c]);
+                bound.set(c, value, codecRegistry.codecFor(types[c], value));
+            }
+            executor.execute(bound, row);
+        }
+    }
+
+    private void printErrors() throws IOException {
+        List<String> messages = new ArrayList<String>();
+        String error;
+        while (null != (error = errors.poll()))
+            messages.add(error);
+        PipelinedExecutor.Failure failure;
+        while (null != (failure = executor.pollFailure()))
+            messages.add("row " + failure.tag + ": " + failure.error.getMessage());
+        for (String message : messages) {
+            failed++;
+            if (MAX_PRINTED_ERRORS >= failed)
+                app.println(CqlishApplication.ANSI_RED, "ERROR: " + message);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package hessian.cqlish;
+
+import org.cassandraunit.utils.RestartableEmbeddedCassandraServerHelper;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * -ephemeral: a throwaway node.  Its data, commit log, saved caches and
+ * hints go to cqlish-&lt;pid&gt; in a tmpfs directory (/dev/shm unless another
+ * is given), keyspaces created in the session are made non-durable so their
+ * writes skip the commit log, and everything is removed on exit.  Anything
+ * left behind by a process that did not exit cleanly is removed by the next
+ * ephemeral session.
+ */
+public class EphemeralMode {
+    public static final String DEFAULT_BASE_DIR = "/dev/shm";
+    private static final String DIR_PREFIX = "cqlish-";
+    private static final Pattern CREATE_KEYSPACE_PATTERN = Pattern.compile("^\\s*CREATE\\s+(KEYSPACE|SCHEMA)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern DURABLE_WRITES_PATTERN = Pattern.compile("\\bdurable_writes\\s*=\\s*(true|'true')", Pattern.CASE_INSENSITIVE);
+    private static final Pattern NO_DURABLE_WRITES_PATTERN = Pattern.compile("\\bdurable_writes\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern STATEMENT_END_PATTERN = Pattern.compile("\\s*;?\\s*$");
+
+    /**
+     * The directory to put the node in: base if given, else /dev/shm if
+     * there is one, else the JVM's temporary directory.
+     */
+    public static File tmpDir(String base) {
+        if (null == base)
+            base = new File(DEFAULT_BASE_DIR).canWrite() ? DEFAULT_BASE_DIR : System.getProperty("java.io.tmpdir");
+        return new File(base, DIR_PREFIX + pid());
+    }
+
+    private static String pid() {
+        // the runtime name is <pid>@<host>
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int at = name.indexOf('@');
+        return (0 < at) ? name.substring(0, at) : name;
+    }
+
+    /**
+     * Deletes, in the background, the directories of ephemeral sessions
+     * whose process is gone.  Only possible where /proc is available.
+     */
+    public static void removeStale(File tmpDir) {
+        if (!new File("/proc/self").isDirectory())
+            return;
+        File[] dirs = tmpDir.getParentFile().listFiles((parent, name) -> name.startsWith(DIR_PREFIX) && name.substring(DIR_PREFIX.length()).matches("[0-9]+"));
+        if (null == dirs)
+            return;
+        for (File dir : dirs) {
+            if (!new File("/proc/" + dir.getName().substring(DIR_PREFIX.length())).exists())
+                RestartableEmbeddedCassandraServerHelper.rmdirAsync(dir.getPath());
+        }
+    }
+
+    public static Map<String, String> yamlSettings(File tmpDir) {
+        Map<String, String> settings = new LinkedHashMap<String, String>();
+        settings.put("data_file_directories", "[" + new File(tmpDir, "data").getPath() + "]");
+        settings.put("commitlog_directory", new File(tmpDir, "commitlog").getPath());
+        settings.put("saved_caches_directory", new File(tmpDir, "saved_caches").getPath());
+        settings.put("hints_directory", new File(tmpDir, "hints").getPath());
+        settings.put("cdc_raw_directory", new File(tmpDir, "cdc").getPath());
+        return settings;
+    }
+
+    /**
+     * Returns cql with durable_writes turned off if it creates a keyspace,
+     * else cql unchanged.
+     */
+    public static String nonDurable(String cql) {
+        if (!CREATE_KEYSPACE_PATTERN.matcher(cql).lookingAt())
+            return cql;
+        Matcher durable = DURABLE_WRITES_PATTERN.matcher(cql);
+        if (durable.find())
+            return durable.replaceAll("durable_writes = false");
+        if (NO_DURABLE_WRITES_PATTERN.matcher(cql).find())
+            return cql;
+        Matcher end = STATEMENT_END_PATTERN.matcher(cql);
+        end.find();
+        return cql.substring(0, end.start()) + " AND durable_writes = false" + cql.substring(end.start());
+    }
+}
@@ -0,0 +1,149 @@
+package hessian.cqlish;
+
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.exceptions.DriverException;
+import org.cassandraunit.utils.RestartableEmbeddedCassandraServerHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Named data fixtures: SAVE FIXTURE captures every table with a Cassandra
+ * snapshot and keeps the snapshot's hard links under target/fixtures/&lt;name&gt;,
+ * so saving copies no data.  Restoring hard-links the files back, so it
+ * takes about as long as creating the links, whatever the size of the data.
+ *
+ * At startup (-fixture) the whole data directory, system keyspaces included,
+ * is rebuilt from the fixture before Cassandra starts.  LOAD FIXTURE on a
+ * running node drops the user keyspaces, recreates them from the schema
+ * saved with the fixture and loads the linked SSTables into the new tables.
+ */
+public class Fixtures {
+    public static final String FIXTURES_DIR = "target/fixtures";
+    private static final String SCHEMA_FILE = "schema.cql";
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_\\-]+");
+    private static final Pattern STATEMENT_END_PATTERN = Pattern.compile(";\\s*\\n");
+
+    private final CqlishApplication app;
+    private final Session session;
+
+    public Fixtures(CqlishApplication app, Session session) {
+        this.app = app;
+        this.session = session;
+    }
+
+    public static boolean isValidName(String name) {
+        return NAME_PATTERN.matcher(name).matches();
+    }
+
+    public static File fixtureDir(String name) {
+        return new File(FIXTURES_DIR, name);
+    }
+
+    public static boolean exists(String name) {
+        return isValidName(name) && new File(fixtureDir(name), SCHEMA_FILE).isFile();
+    }
+
+    public static List<String> names() {
+        List<String> names = new ArrayList<String>();
+        File[] dirs = new File(FIXTURES_DIR).listFiles(File::isDirectory);
+        if (null != dirs) {
+            for (File dir : dirs) {
+                if (exists(dir.getName()))
+                    names.add(dir.getName());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Rebuilds dataDir from the fixture.  Must be called before Cassandra
+     * starts, after the old data directory has been moved aside.  Files are
+     * copied instead of linked if dataDir is on another file system.
+     * Returns the number of files restored.
+     */
+    public static int restore(String name, File dataDir) throws IOException {
+        return RestartableEmbeddedCassandraServerHelper.linkTree(new File(fixtureDir(name), "data"), dataDir);
+    }
+
+    public boolean save(String name) throws IOException {
+        if (!isValidName(name)) {
+            app.println(CqlishApplication.ANSI_RED, "ERROR: fixture names may only contain letters, digits, _ and -: " + name);
+            return false;
+        }
+        long begin = System.currentTimeMillis();
+        File dir = fixtureDir(name);
+        RestartableEmbeddedCassandraServerHelper.rmdirAsync(dir.getPath());
+        RestartableEmbeddedCassandraServerHelper.mkdir(dir.getPath());
+        StringBuilder schema = new StringBuilder();
+        for (KeyspaceMetadata km : session.getCluster().getMetadata().getKeyspaces()) {
+            if (RestartableEmbeddedCassandraServerHelper.nonSystemKeyspaces().test(km.getName()))
+                schema.append(km.exportAsString()).append("\n");
+        }
+        int tables = RestartableEmbeddedCassandraServerHelper.snapshotTo(new File(dir, "data"));
+        // the schema file goes last; a fixture without one is incomplete
+        Files.write(new File(dir, SCHEMA_FILE).toPath(), schema.toString().getBytes(StandardCharsets.UTF_8));
+        app.println(CqlishApplication.ANSI_YELLOW, String.format("Saved fixture %s (%d tables) in %d ms",
+                name, tables, System.currentTimeMillis() - begin));
+        return true;
+    }
+
+    public boolean load(String name) throws IOException {
+        if (!exists(name)) {
+            app.println(CqlishApplication.ANSI_RED, "ERROR: no such fixture: " + name + " (fixtures: " + String.join(", ", names()) + ")");
+            return false;
+        }
+        long begin = System.currentTimeMillis();
+        File dir = fixtureDir(name);
+        try {
+            for (KeyspaceMetadata km : session.getCluster().getMetadata().getKeyspaces()) {
+                if (RestartableEmbeddedCassandraServerHelper.nonSystemKeyspaces().test(km.getName()))
+                    session.execute("DROP KEYSPACE " + Metadata.quoteIfNecessary(km.getName()));
+            }
+            String schema = new String(Files.readAllBytes(new File(dir, SCHEMA_FILE).toPath()), StandardCharsets.UTF_8);
+            for (String statement : STATEMENT_END_PATTERN.split(schema)) {
+                if (!statement.trim().isEmpty())
+                    session.execute(app.toStatement(statement));
+            }
+        }
+        catch (DriverException de) {
+            app.println(CqlishApplication.ANSI_RED, "ERROR: could not recreate the schema of fixture " + name + ": " + de.getMessage());
+            return false;
+        }
+        long schemaDone = System.currentTimeMillis();
+
+        int tables = 0;
+        int sstables = 0;
+        File[] keyspaceDirs = new File(dir, "data").listFiles(File::isDirectory);
+        for (File keyspaceDir : (null == keyspaceDirs) ? new File[0] : keyspaceDirs) {
+            if (!RestartableEmbeddedCassandraServerHelper.nonSystemKeyspaces().test(keyspaceDir.getName()))
+                continue;
+            File[] tableDirs = keyspaceDir.listFiles(File::isDirectory);
+            for (File tableDir : (null == tableDirs) ? new File[0] : tableDirs) {
+                // table directories are named <table>-<table id>
+                String table = tableDir.getName().substring(0, tableDir.getName().lastIndexOf('-'));
+                try {
+                    sstables += RestartableEmbeddedCassandraServerHelper.importSSTables(keyspaceDir.getName(), table,
+                            Collections.singletonList(tableDir), true);
+                    tables++;
+                }
+                catch (IllegalArgumentException iae) {
+                    app.println(CqlishApplication.ANSI_RED, "ERROR: " + iae.getMessage());
+                }
+            }
+        }
+        long end = System.currentTimeMillis();
+        app.println(CqlishApplication.ANSI_YELLOW, String.format("Loaded fixture %s: schema in %d ms, %d SSTables into %d tables in %d ms",
+                name, schemaDone - begin, sstables, tables, end - schemaDone));
+        return true;
+    }
+}
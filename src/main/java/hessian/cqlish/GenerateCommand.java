@@ -0,0 +1,85 @@
+package hessian.cqlish;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed GENERATE command:
+ * GENERATE &lt;n&gt; ROWS INTO [keyspace.]table [PARTITIONS p] [ROWS PER PARTITION r] [SEED s]
+ * Identifiers are kept as written.  partitions and rowsPerPartition are 0
+ * when not given.
+ */
+public class GenerateCommand {
+    public static final long DEFAULT_SEED = 0;
+    private static final Pattern GENERATE_PATTERN = Pattern.compile(
+            "^GENERATE\\s+(\\d+)\\s+ROWS\\s+INTO\\s+([\\w\"]+(?:\\.[\\w\"]+)?)((?:\\s+(?:PARTITIONS|ROWS\\s+PER\\s+PARTITION|SEED)\\s+-?\\d+)*)$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern OPTION_PATTERN = Pattern.compile(
+            "(PARTITIONS|ROWS\\s+PER\\s+PARTITION|SEED)\\s+(-?\\d+)", Pattern.CASE_INSENSITIVE);
+
+    public final long rows;
+    public final String keyspace;
+    public final String table;
+    public final long partitions;
+    public final long rowsPerPartition;
+    public final long seed;
+
+    private GenerateCommand(long rows, String keyspace, String table, long partitions, long rowsPerPartition, long seed) {
+        this.rows = rows;
+        this.keyspace = keyspace;
+        this.table = table;
+        this.partitions = partitions;
+        this.rowsPerPartition = rowsPerPartition;
+        this.seed = seed;
+    }
+
+    /**
+     * Parses input (without the trailing semicolon).  Returns null if it is
+     * not a valid GENERATE command.  defaultKeyspace is used when the table
+     * is not qualified.
+     */
+    public static GenerateCommand parse(String input, String defaultKeyspace) {
+        Matcher m = GENERATE_PATTERN.matcher(input.trim());
+        if (!m.matches())
+            return null;
+
+        String keyspace = defaultKeyspace;
+        String table = m.group(2);
+        int dot = table.indexOf('.');
+        if (0 <= dot) {
+            keyspace = table.substring(0, dot);
+            table = table.substring(dot + 1);
+        }
+        if (null == keyspace)
+            return null;
+
+        long rows;
+        long partitions = 0;
+        long rowsPerPartition = 0;
+        long seed = DEFAULT_SEED;
+        try {
+            rows = Long.parseLong(m.group(1));
+            Matcher om = OPTION_PATTERN.matcher(m.group(3));
+            while (om.find()) {
+                String option = om.group(1).toUpperCase();
+                long value = Long.parseLong(om.group(2));
+                if (option.equals("SEED"))
+                    seed = value;
+                else if (option.equals("PARTITIONS"))
+                    partitions = value;
+                else
+                    rowsPerPartition = value;
+            }
+        }
+        catch (NumberFormatException nfe) {
+            return null;
+        }
+        if ((0 >= rows) || (0 > partitions) || (0 > rowsPerPartition))
+            return null;
+        return new GenerateCommand(rows, keyspace, table, partitions, rowsPerPartition, seed);
+    }
+
+    public String qualifiedTable() {
+        return keyspace + "." + table;
+    }
+}
@@ -0,0 +1,271 @@
+package hessian.cqlish;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.InProcessRows;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.cassandra.cql3.CQLStatement;
+import org.apache.cassandra.cql3.ColumnSpecification;
+import org.apache.cassandra.cql3.QueryOptions;
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.cql3.functions.UDHelper;
+import org.apache.cassandra.cql3.statements.SelectStatement;
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.partitions.PartitionIterator;
+import org.apache.cassandra.exceptions.RequestExecutionException;
+import org.apache.cassandra.service.ClientState;
+import org.apache.cassandra.service.QueryState;
+import org.apache.cassandra.service.pager.QueryPager;
+import org.apache.cassandra.transport.messages.ResultMessage;
+import org.apache.cassandra.utils.FBUtilities;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
+
+/**
+ * Runs statements directly against the embedded node's query processor,
+ * skipping the driver, the native protocol and Netty.  Results are adapted
+ * into driver ResultSets so they print exactly like driver results.
+ *
+ * Only SELECT, INSERT, UPDATE, DELETE and BATCH are run here; schema changes
+ * and USE keep going through the driver so that its metadata and logged
+ * keyspace stay current.  Plain SELECTs are paged with the node's own pager,
+ * one page per fetch; aggregates, GROUP BY and ORDER BY are run unpaged so
+ * that the node can combine their pages.
+ */
+public class InProcessExecutor {
+    private static final Pattern UNPAGED_PATTERN = Pattern.compile("\\b(GROUP|ORDER)\\s+BY\\b", Pattern.CASE_INSENSITIVE);
+
+    private final CodecRegistry codecRegistry;
+    private final ProtocolVersion protocolVersion;
+
+    public InProcessExecutor(CodecRegistry codecRegistry, ProtocolVersion protocolVersion) {
+        this.codecRegistry = codecRegistry;
+        this.protocolVersion = protocolVersion;
+    }
+
+    public static boolean handles(String cql) {
+        StatementType type = StatementType.of(cql);
+        return (StatementType.SELECT == type) || (StatementType.INSERT == type) || (StatementType.UPDATE == type)
+                || (StatementType.DELETE == type) || (StatementType.BATCH == type);
+    }
+
+    /**
+     * Executes cql in keyspace (which may be null) and returns its result.
+     * Throws the node's RequestValidationException for invalid statements
+     * and its RequestExecutionException (e.g. a read timeout) for failures;
+     * a later page that fails fails its fetchMoreResults() future with a
+     * DriverException instead, as the driver's would.
+     *
+     * Each statement gets its own client state, since background
+     * statements run concurrently and in different keyspaces.
+     */
+    public ResultSet execute(String cql, String keyspace, int fetchSize) {
+        ClientState clientState = ClientState.forInternalCalls();
+        if (null != keyspace)
+            clientState.setKeyspace(keyspace);
+        long queryStartNanoTime = System.nanoTime();
+        CQLStatement statement = QueryProcessor.getStatement(cql, clientState).statement;
+        if ((statement instanceof SelectStatement) && !((SelectStatement)statement).getSelection().isAggregate()
+                && !UNPAGED_PATTERN.matcher(cql).find()) {
+            statement.checkAccess(clientState);
+            statement.validate(clientState);
+            return new PagedResultSet((SelectStatement)statement, clientState, fetchSize);
+        }
+
+        ResultMessage result = QueryProcessor.instance.processStatement(statement, new QueryState(clientState), options(-1), queryStartNanoTime);
+        if (result instanceof ResultMessage.Rows) {
+            org.apache.cassandra.cql3.ResultSet rows = ((ResultMessage.Rows)result).result;
+            InProcessResultSet resultSet = new InProcessResultSet(columnDefinitions(rows.metadata.names, rows.metadata.getColumnCount()));
+            resultSet.addPage(rows);
+            return resultSet;
+        }
+        return new InProcessResultSet(columnDefinitions(Collections.emptyList(), 0));
+    }
+
+    private static QueryOptions options(int pageSize) {
+        return QueryOptions.create(ConsistencyLevel.ONE, Collections.emptyList(), false, pageSize, null,
+                ConsistencyLevel.SERIAL, org.apache.cassandra.transport.ProtocolVersion.CURRENT);
+    }
+
+    private ColumnDefinitions columnDefinitions(List<ColumnSpecification> specs, int count) {
+        String[] keyspaces = new String[count];
+        String[] tables = new String[count];
+        String[] names = new String[count];
+        DataType[] types = new DataType[count];
+        for (int i = 0; i < count; i++) {
+            ColumnSpecification spec = specs.get(i);
+            keyspaces[i] = spec.ksName;
+            tables[i] = spec.cfName;
+            names[i] = spec.name.toString();
+            types[i] = UDHelper.driverType(spec.type);
+        }
+        return InProcessRows.columnDefinitions(keyspaces, tables, names, types, codecRegistry);
+    }
+
+    /**
+     * A driver ResultSet over rows produced in process.  There is no
+     * ExecutionInfo since nothing went over the wire.
+     */
+    private class InProcessResultSet implements ResultSet {
+        ColumnDefinitions columnDefinitions;
+        private final ArrayDeque<Row> rows = new ArrayDeque<Row>();
+
+        InProcessResultSet(ColumnDefinitions columnDefinitions) {
+            this.columnDefinitions = columnDefinitions;
+        }
+
+        void addPage(org.apache.cassandra.cql3.ResultSet page) {
+            int count = columnDefinitions.size();
+            for (List<ByteBuffer> values : page.rows)
+                rows.add(InProcessRows.row(columnDefinitions, protocolVersion, (values.size() == count) ? values : values.subList(0, count)));
+        }
+
+        // fetches the next page, returning false if there is none
+        boolean fetchPage() {
+            return false;
+        }
+
+        @Override
+        public Row one() {
+            while (rows.isEmpty()) {
+                if (!fetchPage())
+                    return null;
+            }
+            return rows.poll();
+        }
+
+        @Override
+        public ColumnDefinitions getColumnDefinitions() {
+            return columnDefinitions;
+        }
+
+        @Override
+        public boolean wasApplied() {
+            Row row = rows.peek();
+            if ((null == row) || !columnDefinitions.contains("[applied]"))
+                return true;
+            return row.getBool("[applied]");
+        }
+
+        @Override
+        public boolean isExhausted() {
+            while (rows.isEmpty()) {
+                if (!fetchPage())
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isFullyFetched() {
+            return true;
+        }
+
+        @Override
+        public int getAvailableWithoutFetching() {
+            return rows.size();
+        }
+
+        @Override
+        public ListenableFuture<ResultSet> fetchMoreResults() {
+            try {
+                fetchPage();
+            }
+            catch (RequestExecutionException ree) {
+                return Futures.immediateFailedFuture(new DriverException(ree.getMessage(), ree));
+            }
+            return Futures.immediateFuture(this);
+        }
+
+        @Override
+        public List<Row> all() {
+            List<Row> all = new ArrayList<Row>();
+            Row row;
+            while (null != (row = one()))
+                all.add(row);
+            return all;
+        }
+
+        @Override
+        public Iterator<Row> iterator() {
+            return new Iterator<Row>() {
+                @Override
+                public boolean hasNext() {
+                    return !isExhausted();
+                }
+
+                @Override
+                public Row next() {
+                    Row row = one();
+                    if (null == row)
+                        throw new NoSuchElementException();
+                    return row;
+                }
+            };
+        }
+
+        @Override
+        public ExecutionInfo getExecutionInfo() {
+            return null;
+        }
+
+        @Override
+        public List<ExecutionInfo> getAllExecutionInfo() {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Fetches the rows of a SELECT one page at a time, as the driver would.
+     */
+    private class PagedResultSet extends InProcessResultSet {
+        private final SelectStatement select;
+        private final ClientState clientState;
+        private final int pageSize;
+        private final int nowInSec = FBUtilities.nowInSeconds();
+        private final QueryPager pager;
+
+        PagedResultSet(SelectStatement select, ClientState clientState, int pageSize) {
+            super(null);
+            this.select = select;
+            this.clientState = clientState;
+            this.pageSize = pageSize;
+            this.pager = select.getQuery(options(pageSize), nowInSec).getPager(null, org.apache.cassandra.transport.ProtocolVersion.CURRENT);
+            fetchPage();
+        }
+
+        @Override
+        boolean fetchPage() {
+            if ((null != columnDefinitions) && pager.isExhausted())
+                return false;
+            org.apache.cassandra.cql3.ResultSet page;
+            // each page is its own request as far as read timeouts go, as with the native protocol
+            try (PartitionIterator partitions = pager.fetchPage(pageSize, ConsistencyLevel.ONE, clientState, System.nanoTime())) {
+                page = select.process(partitions, nowInSec);
+            }
+            if (null == columnDefinitions)
+                columnDefinitions = columnDefinitions(page.metadata.names, page.metadata.getColumnCount());
+            addPage(page);
+            return true;
+        }
+
+        @Override
+        public boolean isFullyFetched() {
+            return pager.isExhausted();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package hessian.cqlish;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Counting;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.apache.cassandra.metrics.CassandraMetricsRegistry;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the embedded node's and the driver's metric registries.  Node
+ * metrics are named node.&lt;name&gt; (without Cassandra's
+ * org.apache.cassandra.metrics prefix) and driver metrics
+ * driver.&lt;name&gt;.  Without a filter only the SUMMARY metrics are
+ * shown; with one, every metric whose name contains it.
+ *
+ * Can also write a snapshot to a file every interval: CSV rows of time,
+ * metric, field and value, or, for a .json file, one JSON object per
+ * snapshot.
+ */
+public class MetricsReporter {
+    public static final long DEFAULT_INTERVAL_SECONDS = 10;
+    public static final List<String> SUMMARY = Arrays.asList(
+            "node.ClientRequest.Latency.Read",
+            "node.ClientRequest.Latency.Write",
+            "node.ClientRequest.Latency.RangeSlice",
+            "node.Compaction.PendingTasks",
+            "node.Compaction.CompletedTasks",
+            "node.Table.MemtableLiveDataSize.all",
+            "node.Table.MemtableOnHeapSize.all",
+            "node.Table.MemtableOffHeapSize.all",
+            "node.Table.PendingFlushes.all",
+            "node.Cache.HitRate.KeyCache",
+            "node.Cache.HitRate.RowCache",
+            "node.Cache.HitRate.CounterCache",
+            "driver.requests",
+            "driver.inflight-requests",
+            "driver.open-connections",
+            "driver.connection-errors",
+            "driver.read-timeouts",
+            "driver.write-timeouts",
+            "driver.unavailables",
+            "driver.client-timeouts",
+            "driver.other-errors");
+    private static final String NODE_PREFIX = "org.apache.cassandra.metrics.";
+    private static final double NANOS_PER_MS = 1000000.0;
+
+    private final MetricRegistry driverRegistry;
+    private ScheduledExecutorService scheduler;
+    private Writer out;
+    private boolean json;
+
+    public MetricsReporter(MetricRegistry driverRegistry) {
+        this.driverRegistry = driverRegistry;
+    }
+
+    /**
+     * The fields of each metric matching filter (or of the SUMMARY metrics,
+     * if filter is null), by metric name.
+     */
+    public Map<String, Map<String, Number>> snapshot(String filter) {
+        Map<String, Metric> metrics = new TreeMap<String, Metric>();
+        for (Map.Entry<String, Metric> entry : CassandraMetricsRegistry.Metrics.getMetrics().entrySet()) {
+            String name = entry.getKey();
+            metrics.put("node." + (name.startsWith(NODE_PREFIX) ? name.substring(NODE_PREFIX.length()) : name), entry.getValue());
+        }
+        if (null != driverRegistry) {
+            for (Map.Entry<String, Metric> entry : driverRegistry.getMetrics().entrySet())
+                metrics.put("driver." + entry.getKey(), entry.getValue());
+        }
+
+        Map<String, Map<String, Number>> snapshot = new LinkedHashMap<String, Map<String, Number>>();
+        if (null == filter) {
+            for (String name : SUMMARY)
+                add(snapshot, name, metrics.get(name));
+        }
+        else {
+            String lowerFilter = filter.toLowerCase();
+            for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+                if (entry.getKey().toLowerCase().contains(lowerFilter))
+                    add(snapshot, entry.getKey(), entry.getValue());
+            }
+        }
+        return snapshot;
+    }
+
+    public String report(String filter) {
+        Map<String, Map<String, Number>> snapshot = snapshot(filter);
+        if (snapshot.isEmpty())
+            return " No metrics match " + filter + "\n";
+        int width = 0;
+        for (String name : snapshot.keySet())
+            width = Math.max(width, name.length());
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Map<String, Number>> metric : snapshot.entrySet()) {
+            sb.append(String.format("   %-" + width + "s ", metric.getKey()));
+            for (Map.Entry<String, Number> field : metric.getValue().entrySet())
+                sb.append(' ').append(field.getKey()).append('=').append(format(field.getValue()));
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes a snapshot of the SUMMARY metrics to file now and every
+     * intervalSeconds until stop().
+     */
+    public synchronized void start(File file, long intervalSeconds) throws IOException {
+        json = file.getName().toLowerCase().endsWith(".json");
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        if (!json) {
+            try {
+                out.write("time,metric,field,value\n");
+            }
+            catch (IOException ioe) {
+                out.close();
+                throw ioe;
+            }
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cqlish-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::write, 0, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes a last snapshot and closes the file.
+     */
+    public synchronized void stop() throws IOException {
+        if (null == scheduler)
+            return;
+        scheduler.shutdownNow();
+        scheduler = null;
+        writeSnapshot();
+        out.close();
+    }
+
+    private synchronized void write() {
+        if (null == scheduler)
+            return;
+        try {
+            writeSnapshot();
+        }
+        catch (IOException ioe) {
+            // the disk is full or gone; the next interval tries again
+        }
+    }
+
+    private void writeSnapshot() throws IOException {
+        long now = System.currentTimeMillis();
+        Map<String, Map<String, Number>> snapshot = snapshot(null);
+        if (json) {
+            StringBuilder sb = new StringBuilder("{\"time\":").append(now);
+            for (Map.Entry<String, Map<String, Number>> metric : snapshot.entrySet()) {
+                sb.append(",\"").append(metric.getKey()).append("\":{");
+                String separator = "";
+                for (Map.Entry<String, Number> field : metric.getValue().entrySet()) {
+                    sb.append(separator).append('"').append(field.getKey()).append("\":").append(jsonNumber(field.getValue()));
+                    separator = ",";
+                }
+                sb.append('}');
+            }
+            out.write(sb.append("}\n").toString());
+        }
+        else {
+            for (Map.Entry<String, Map<String, Number>> metric : snapshot.entrySet()) {
+                for (Map.Entry<String, Number> field : metric.getValue().entrySet())
+                    out.write(now + "," + metric.getKey() + "," + field.getKey() + "," + field.getValue() + "\n");
+            }
+        }
+        out.flush();
+    }
+
+    // the fields of metric, if it has any
+    private static void add(Map<String, Map<String, Number>> snapshot, String name, Metric metric) {
+        Map<String, Number> fields = new LinkedHashMap<String, Number>();
+        try {
+            if (metric instanceof Gauge) {
+                Object value = ((Gauge<?>)metric).getValue();
+                if (value instanceof Number)
+                    fields.put("value", (Number)value);
+            }
+            else if (metric instanceof Counter) {
+                fields.put("count", ((Counter)metric).getCount());
+            }
+            else if (metric instanceof Meter) {
+                fields.put("count", ((Meter)metric).getCount());
+                fields.put("rate_1m", ((Meter)metric).getOneMinuteRate());
+            }
+            else if (metric instanceof Timer) {
+                fields.put("count", ((Timer)metric).getCount());
+                fields.put("rate_1m", ((Timer)metric).getOneMinuteRate());
+                snapshotFields(fields, ((Timer)metric).getSnapshot(), "_ms", NANOS_PER_MS);
+            }
+            else if (metric instanceof Histogram) {
+                fields.put("count", ((Counting)metric).getCount());
+                snapshotFields(fields, ((Histogram)metric).getSnapshot(), "", 1.0);
+            }
+        }
+        catch (RuntimeException e) {
+            // some node gauges fail until their subsystem has started
+            return;
+        }
+        if (!fields.isEmpty())
+            snapshot.put(name, fields);
+    }
+
+    private static void snapshotFields(Map<String, Number> fields, Snapshot snapshot, String suffix, double divisor) {
+        fields.put("mean" + suffix, snapshot.getMean() / divisor);
+        fields.put("p50" + suffix, snapshot.getMedian() / divisor);
+        fields.put("p95" + suffix, snapshot.get95thPercentile() / divisor);
+        fields.put("p99" + suffix, snapshot.get99thPercentile() / divisor);
+        fields.put("max" + suffix, snapshot.getMax() / divisor);
+    }
+
+    private static String format(Number value) {
+        if ((value instanceof Double) || (value instanceof Float))
+            return String.format("%.3f", value.doubleValue());
+        return value.toString();
+    }
+
+    private static String jsonNumber(Number value) {
+        if ((value instanceof Double) || (value instanceof Float)) {
+            double d = value.doubleValue();
+            return (Double.isNaN(d) || Double.isInfinite(d)) ? "null" : Double.toString(d);
+        }
+        return value.toString();
+    }
+}
@@ -0,0 +1,114 @@
+package hessian.cqlish;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * -minimal: starts the embedded node without the services a single-user
+ * shell does not need.  Thrift, hinted handoff, the dynamic snitch, index
+ * summary redistribution, periodic cache saving and size estimates are
+ * turned off, JMX and MBean registration are skipped, the sigar library is
+ * not loaded, and Cassandra sizes its thread pools for at most
+ * MAX_PROCESSORS cores.  Only the native transport, which the driver needs,
+ * is left listening.
+ *
+ * Gossip and compaction keep running: the node cannot serve requests
+ * without joining its own ring, and reads slow down without compaction.
+ */
+public class MinimalMode {
+    public static final int MAX_PROCESSORS = 2;
+
+    public static Map<String, String> yamlSettings() {
+        Map<String, String> settings = new LinkedHashMap<String, String>();
+        settings.put("start_rpc", "false");
+        settings.put("hinted_handoff_enabled", "false");
+        settings.put("max_hints_delivery_threads", "1");
+        settings.put("dynamic_snitch", "false");
+        settings.put("index_summary_resize_interval_in_minutes", "-1");
+        settings.put("key_cache_save_period", "0");
+        settings.put("row_cache_save_period", "0");
+        settings.put("counter_cache_save_period", "0");
+        settings.put("memtable_flush_writers", "1");
+        settings.put("native_transport_max_threads", "16");
+        return settings;
+    }
+
+    /**
+     * Sets the system properties; must be called before Cassandra starts.
+     */
+    public static void setSystemProperties() {
+        // without a JMX port Cassandra logs an error, which here is expected
+        ((LoggerContext)LoggerFactory.getILoggerFactory()).addTurboFilter(new TurboFilter() {
+            @Override
+            public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+                return ((null != format) && format.startsWith("cassandra.jmx.local.port missing")) ? FilterReply.DENY : FilterReply.NEUTRAL;
+            }
+        });
+        loadSigarQuietly();
+        System.setProperty("cassandra.start_rpc", "false");
+        System.setProperty("cassandra.disable_mbean_registration", "true");
+        System.setProperty("cassandra.size_recorder_interval", "0");
+        System.setProperty("cassandra.available_processors",
+                Integer.toString(Math.min(MAX_PROCESSORS, Runtime.getRuntime().availableProcessors())));
+    }
+
+    // Cassandra's startup checks load sigar, which prints a stack trace to
+    // stderr when its native library is missing; load it first, quietly
+    private static void loadSigarQuietly() {
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        try {
+            Class.forName("org.hyperic.sigar.Sigar");
+        }
+        catch (ClassNotFoundException | LinkageError e) {
+            // then Cassandra runs without it too
+        }
+        finally {
+            System.setErr(err);
+        }
+    }
+
+    /**
+     * The resident set size of this process in MB, or -1 where /proc is
+     * not available.
+     */
+    public static long residentMemoryMB() {
+        Path status = Paths.get("/proc/self/status");
+        if (!Files.isReadable(status))
+            return -1;
+        try {
+            for (String line : Files.readAllLines(status, StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmRSS:"))
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) >> 10;
+            }
+        }
+        catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    public static int threadCount() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+}
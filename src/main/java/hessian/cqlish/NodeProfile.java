@@ -0,0 +1,115 @@
+package hessian.cqlish;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory and resource profiles for the embedded node.  Each profile sizes
+ * the memtables, caches, request and compaction threads and compaction
+ * throughput together for a heap of heapMB, and its settings are written
+ * into the node's copy of cu-cassandra.yaml.  The heap itself is set by
+ * runself.sh, which reads -profile from the command line.
+ *
+ * AUTO picks TINY on machines with less than 6 GB of RAM or fewer than 3
+ * cores, LARGE on machines with at least 32 GB and 8 cores, and DEFAULT
+ * otherwise; runself.sh uses the same rule.
+ */
+public enum NodeProfile {
+    //    heap  memtable heap/offheap  key/row cache  reads writes compactors  compaction MB/s
+    TINY(  512,    64,    64,             8,    0,        4,     4,     1,           8),
+    DEFAULT(4096, 1024, 1024,           100,    0,       32,    32,     2,          16),
+    LARGE( 8192, 2048,  4096,           512,  256,       64,   128,     8,           0);
+
+    public static final long AUTO_TINY_MAX_RAM_MB = 6 * 1024;
+    public static final int AUTO_TINY_MAX_CORES = 2;
+    public static final long AUTO_LARGE_MIN_RAM_MB = 32 * 1024;
+    public static final int AUTO_LARGE_MIN_CORES = 8;
+
+    public final int heapMB;
+    public final int memtableHeapMB;
+    public final int memtableOffheapMB;
+    public final int keyCacheMB;
+    public final int rowCacheMB;
+    public final int concurrentReads;
+    public final int concurrentWrites;
+    public final int concurrentCompactors;
+    public final int compactionThroughputMB;  // 0 is unthrottled
+
+    NodeProfile(int heapMB, int memtableHeapMB, int memtableOffheapMB, int keyCacheMB, int rowCacheMB,
+                int concurrentReads, int concurrentWrites, int concurrentCompactors, int compactionThroughputMB) {
+        this.heapMB = heapMB;
+        this.memtableHeapMB = memtableHeapMB;
+        this.memtableOffheapMB = memtableOffheapMB;
+        this.keyCacheMB = keyCacheMB;
+        this.rowCacheMB = rowCacheMB;
+        this.concurrentReads = concurrentReads;
+        this.concurrentWrites = concurrentWrites;
+        this.concurrentCompactors = concurrentCompactors;
+        this.compactionThroughputMB = compactionThroughputMB;
+    }
+
+    /**
+     * Returns the profile named by name (tiny, default, large or auto), or
+     * null if there is none.
+     */
+    public static NodeProfile of(String name) {
+        if ("auto".equalsIgnoreCase(name))
+            return auto();
+        for (NodeProfile profile : values()) {
+            if (profile.name().equalsIgnoreCase(name))
+                return profile;
+        }
+        return null;
+    }
+
+    public static NodeProfile auto() {
+        long ramMB = physicalMemoryMB();
+        int cores = Runtime.getRuntime().availableProcessors();
+        if (((0 < ramMB) && (ramMB < AUTO_TINY_MAX_RAM_MB)) || (cores <= AUTO_TINY_MAX_CORES))
+            return TINY;
+        if ((ramMB >= AUTO_LARGE_MIN_RAM_MB) && (cores >= AUTO_LARGE_MIN_CORES))
+            return LARGE;
+        return DEFAULT;
+    }
+
+    // 0 if it cannot be found; looked up by name since Java 14 deprecates getTotalPhysicalMemorySize() for getTotalMemorySize()
+    public static long physicalMemoryMB() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (!(os instanceof com.sun.management.OperatingSystemMXBean))
+            return 0;
+        for (String name : new String[] {"getTotalMemorySize", "getTotalPhysicalMemorySize"}) {
+            try {
+                return (Long)com.sun.management.OperatingSystemMXBean.class.getMethod(name).invoke(os) >> 20;
+            }
+            catch (ReflectiveOperationException roe) {
+                // not in this Java; try the next
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The cassandra.yaml settings for this profile.
+     */
+    public Map<String, String> yamlSettings() {
+        Map<String, String> settings = new LinkedHashMap<String, String>();
+        settings.put("memtable_heap_space_in_mb", Integer.toString(memtableHeapMB));
+        settings.put("memtable_offheap_space_in_mb", Integer.toString(memtableOffheapMB));
+        settings.put("memtable_allocation_type", "offheap_objects");
+        settings.put("key_cache_size_in_mb", Integer.toString(keyCacheMB));
+        settings.put("row_cache_size_in_mb", Integer.toString(rowCacheMB));
+        settings.put("concurrent_reads", Integer.toString(concurrentReads));
+        settings.put("concurrent_writes", Integer.toString(concurrentWrites));
+        settings.put("concurrent_counter_writes", Integer.toString(concurrentWrites));
+        settings.put("concurrent_compactors", Integer.toString(concurrentCompactors));
+        settings.put("compaction_throughput_mb_per_sec", Integer.toString(compactionThroughputMB));
+        return settings;
+    }
+
+    public String describe() {
+        return name().toLowerCase() + " (heap " + heapMB + " MB, memtables " + memtableHeapMB + " MB heap + "
+                + memtableOffheapMB + " MB off heap, key/row cache " + keyCacheMB + "/" + rowCacheMB + " MB, "
+                + concurrentReads + "/" + concurrentWrites + " read/write threads, " + concurrentCompactors + " compactors)";
+    }
+}
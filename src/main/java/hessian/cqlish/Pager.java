@@ -0,0 +1,279 @@
+package hessian.cqlish;
+
+import jline.console.ConsoleReader;
+import jline.console.UserInterruptException;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Shows a SpillFile a screen at a time on the terminal's alternate screen,
+ * reading only the rows in view.  Lines wider than the terminal are cut
+ * off; &lt; and &gt; scroll sideways.
+ */
+public class Pager {
+    public static final String KEYS = "SPACE/b page, j/k line, g/G first/last, : row, / search, n next, </> scroll, q quit";
+    private static final String ENTER_SCREEN = "\u001B[?1049h";
+    private static final String LEAVE_SCREEN = "\u001B[?1049l";
+    private static final String CLEAR_SCREEN = "\u001B[H\u001B[2J";
+    private static final String REVERSE = "\u001B[7m";
+    private static final int CTRL_B = 2;
+    private static final int CTRL_C = 3;
+    private static final int CTRL_F = 6;
+    private static final int ESCAPE = 27;
+
+    private final ConsoleReader reader;
+    private final SpillFile spill;
+    private final String[] cells;
+    private final StringBuilder line = new StringBuilder(1024);
+    private final StringBuilder screen = new StringBuilder(1 << 14);
+    private long top = 0;
+    private int left = 0;
+    private String search;
+    private String message;
+
+    public Pager(ConsoleReader reader, SpillFile spill) {
+        this.reader = reader;
+        this.spill = spill;
+        this.cells = new String[spill.getNames().length];
+    }
+
+    /**
+     * Prints all the rows, as a table, to out.
+     */
+    public void print(Writer out, boolean ansi) throws IOException {
+        String headerColor = ansi ? CqlishApplication.ANSI_GREEN : "";
+        String colorReset = ansi ? CqlishApplication.ANSI_RESET : "";
+        header(headerColor, colorReset);
+        out.append(line).append('\n');
+        separator();
+        out.append(line).append('\n');
+        for (long row = 0; row < spill.getRowCount(); row++) {
+            spill.readRow(row, cells);
+            row();
+            out.append(line).append('\n');
+        }
+        out.flush();
+    }
+
+    /**
+     * Shows the rows until the user quits.
+     */
+    public void page() throws IOException {
+        Writer out = reader.getOutput();
+        reader.getTerminal().disableInterruptCharacter();
+        out.write(ENTER_SCREEN);
+        try {
+            while (true) {
+                draw(out);
+                int key = reader.readCharacter();
+                if ((-1 == key) || ('q' == key) || ('Q' == key) || (CTRL_C == key))
+                    break;
+                handle(key);
+            }
+        }
+        finally {
+            out.write(LEAVE_SCREEN);
+            out.flush();
+            reader.getTerminal().enableInterruptCharacter();
+        }
+    }
+
+    private void handle(int key) throws IOException {
+        int view = viewRows();
+        int width = reader.getTerminal().getWidth();
+        message = null;
+        if (ESCAPE == key)
+            key = readEscape();
+        switch (key) {
+            case ' ':
+            case 'f':
+            case CTRL_F:
+                top += view;
+                break;
+            case 'b':
+            case CTRL_B:
+                top -= view;
+                break;
+            case 'j':
+            case '\r':
+            case '\n':
+                top++;
+                break;
+            case 'k':
+                top--;
+                break;
+            case 'g':
+                top = 0;
+                break;
+            case 'G':
+                top = spill.getRowCount();
+                break;
+            case '>':
+                left += Math.max(1, width / 2);
+                break;
+            case '<':
+                left = Math.max(0, left - Math.max(1, width / 2));
+                break;
+            case ':':
+                String row = prompt("Go to row: ");
+                if ((null != row) && row.trim().matches("\\d{1,18}"))
+                    top = Long.parseLong(row.trim()) - 1;
+                else if ((null != row) && !row.trim().isEmpty())
+                    message = "Not a row number: " + row.trim();
+                break;
+            case '/':
+                String text = prompt("Search: ");
+                if ((null != text) && !text.isEmpty()) {
+                    search = text;
+                    find(top);
+                }
+                break;
+            case 'n':
+                if (null == search)
+                    message = "Nothing to search for; / searches";
+                else
+                    find(top + 1);
+                break;
+            default:
+                message = KEYS;
+        }
+        top = Math.max(0, Math.min(top, spill.getRowCount() - view));
+    }
+
+    // turns the arrow, page and home/end keys into the letters above
+    private int readEscape() throws IOException {
+        if ('[' != reader.readCharacter())
+            return ESCAPE;
+        int key = reader.readCharacter();
+        switch (key) {
+            case 'A': return 'k';
+            case 'B': return 'j';
+            case 'C': return '>';
+            case 'D': return '<';
+            case 'H': return 'g';
+            case 'F': return 'G';
+            case '5':
+                reader.readCharacter();  // ~
+                return 'b';
+            case '6':
+                reader.readCharacter();  // ~
+                return ' ';
+            default: return ESCAPE;
+        }
+    }
+
+    // the next row containing search, from fromRow to the end and then from the start
+    private void find(long fromRow) {
+        long found = spill.find(search, fromRow);
+        boolean wrapped = (0 > found) && (0 < fromRow);
+        if (wrapped)
+            found = spill.find(search, 0);
+        if (0 > found) {
+            message = "Not found: " + search;
+        }
+        else {
+            top = found;
+            message = "Row " + (found + 1) + " contains " + search + (wrapped ? " (from the start)" : "");
+        }
+    }
+
+    // reads a line on the status line; null if the user gave up
+    private String prompt(String prompt) throws IOException {
+        Writer out = reader.getOutput();
+        out.write("\r\u001B[K");
+        out.flush();
+        boolean history = reader.isHistoryEnabled();
+        reader.setHistoryEnabled(false);
+        try {
+            return reader.readLine(prompt);
+        }
+        catch (UserInterruptException uie) {
+            return null;
+        }
+        finally {
+            reader.setHistoryEnabled(history);
+            // readLine turns CTRL-C back into a signal when it returns
+            reader.getTerminal().disableInterruptCharacter();
+        }
+    }
+
+    private void draw(Writer out) throws IOException {
+        int width = reader.getTerminal().getWidth();
+        long end = Math.min(spill.getRowCount(), top + viewRows());
+        screen.setLength(0);
+        screen.append(CLEAR_SCREEN);
+        header("", "");
+        appendVisible(width, CqlishApplication.ANSI_GREEN);
+        separator();
+        appendVisible(width, null);
+        for (long row = top; row < end; row++) {
+            spill.readRow(row, cells);
+            row();
+            appendVisible(width, null);
+        }
+        for (long row = end; row < top + viewRows(); row++)
+            screen.append("~\n");
+        String status = (null != message) ? message
+                : String.format("rows %d-%d of %d  (h for keys)", Math.min(top + 1, end), end, spill.getRowCount());
+        screen.append(REVERSE).append(status, 0, Math.min(status.length(), width)).append(CqlishApplication.ANSI_RESET);
+        out.append(screen);
+        out.flush();
+    }
+
+    // the rows that fit below the header and above the status line
+    private int viewRows() {
+        int height = reader.getTerminal().getHeight();
+        return Math.max(1, ((4 < height) ? height : 24) - 3);
+    }
+
+    // the part of line from left that fits in width, in color if not null
+    private void appendVisible(int width, String color) {
+        if (left < line.length()) {
+            if (null != color)
+                screen.append(color);
+            screen.append(line, left, Math.min(line.length(), left + width));
+            if (null != color)
+                screen.append(CqlishApplication.ANSI_RESET);
+        }
+        screen.append('\n');
+    }
+
+    private void header(String headerColor, String colorReset) {
+        String[] names = spill.getNames();
+        int[] widths = spill.getWidths();
+        line.setLength(0);
+        for (int i = 0; i < names.length; i++) {
+            line.append((0 == i) ? " " : "| ").append(headerColor);
+            pad(widths[i] - names[i].length());
+            line.append(names[i]).append(colorReset).append(' ');
+        }
+    }
+
+    private void separator() {
+        int[] widths = spill.getWidths();
+        line.setLength(0);
+        for (int i = 0; i < widths.length; i++) {
+            if (0 != i)
+                line.append('+');
+            for (int j = 0; j < widths[i] + 2; j++)
+                line.append('-');
+        }
+    }
+
+    private void row() {
+        int[] widths = spill.getWidths();
+        line.setLength(0);
+        for (int i = 0; i < cells.length; i++) {
+            String cell = (null == cells[i]) ? SpillFile.NULL : cells[i];
+            line.append((0 == i) ? " " : "| ");
+            pad(widths[i] - cell.length());
+            line.append(cell).append(' ');
+        }
+    }
+
+    private void pad(int n) {
+        for (int i = 0; i < n; i++)
+            line.append(' ');
+    }
+}
@@ -0,0 +1,119 @@
+package hessian.cqlish;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends statements with executeAsync, keeping at most window of them in flight.
+ * Failures are queued with the tag and context they were submitted with
+ * (e.g. a line number and the line) so that the calling thread can report them.
+ * execute() may be called from several threads.  A Listener, if given, is
+ * told how long each statement that succeeded took, on the driver's thread.
+ */
+public class PipelinedExecutor {
+    public static class Failure {
+        public final long tag;
+        public final Object context;
+        public final Throwable error;
+
+        Failure(long tag, Object context, Throwable error) {
+            this.tag = tag;
+            this.context = context;
+            this.error = error;
+        }
+    }
+
+    public interface Listener {
+        void succeeded(long tag, Object context, long nanos);
+    }
+
+    private final Session session;
+    private final int window;
+    private final Listener listener;
+    private final Semaphore permits;
+    private final AtomicLong succeeded = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final Queue<Failure> failures = new ConcurrentLinkedQueue<Failure>();
+
+    public PipelinedExecutor(Session session, int window) {
+        this(session, window, null);
+    }
+
+    public PipelinedExecutor(Session session, int window, Listener listener) {
+        this.session = session;
+        this.window = window;
+        this.listener = listener;
+        this.permits = new Semaphore(window);
+    }
+
+    /**
+     * Sends statement, first waiting for a free slot if window statements
+     * are already in flight.
+     */
+    public void execute(Statement statement, long tag) throws InterruptedException {
+        execute(statement, tag, null);
+    }
+
+    public void execute(Statement statement, final long tag, final Object context) throws InterruptedException {
+        permits.acquire();
+        final long begin = System.nanoTime();
+        ResultSetFuture future;
+        try {
+            future = session.executeAsync(statement);
+        }
+        catch (RuntimeException re) {
+            permits.release();
+            throw re;
+        }
+        Futures.addCallback(future, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet resultSet) {
+                if (null != listener)
+                    listener.succeeded(tag, context, System.nanoTime() - begin);
+                succeeded.incrementAndGet();
+                permits.release();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                failures.add(new Failure(tag, context, t));
+                failed.incrementAndGet();
+                permits.release();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Waits until every statement sent so far has completed.
+     */
+    public void drain() throws InterruptedException {
+        permits.acquire(window);
+        permits.release(window);
+    }
+
+    public Failure pollFailure() {
+        return failures.poll();
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getCompleted() {
+        return succeeded.get() + failed.get();
+    }
+}
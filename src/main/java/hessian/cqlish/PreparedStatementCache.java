@@ -0,0 +1,136 @@
+package hessian.cqlish;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TypeCodec;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.datastax.driver.core.exceptions.InvalidTypeException;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LRU cache of prepared statements keyed by normalized statement text.
+ * Literal INSERT, UPDATE, DELETE and SELECT statements are prepared the
+ * first time their template is seen and bound with the literal values after
+ * that.  Templates the server refuses to prepare are remembered so they are
+ * not tried again, and the whole cache is dropped on any schema change.
+ */
+public class PreparedStatementCache {
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final Session session;
+    private final CodecRegistry codecRegistry;
+    private final int capacity;
+    private final Map<String, PreparedStatement> cache;  // null values mark templates that could not be prepared
+    private long hits = 0;  // cached and bound
+    private long misses = 0;  // prepared for the first time
+    private long bypassed = 0;  // sent as is: not a literal statement, could not be prepared, or could not be bound
+
+    public PreparedStatementCache(Session session, final int capacity) {
+        this.session = session;
+        this.codecRegistry = session.getCluster().getConfiguration().getCodecRegistry();
+        this.capacity = capacity;
+        this.cache = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns a bound statement for cql, or null if it should be sent as is.
+     */
+    public synchronized BoundStatement statementFor(String cql) {
+        if (0 >= capacity)
+            return null;
+        StatementType type = StatementType.of(cql);
+        if ((StatementType.SELECT != type) && (StatementType.INSERT != type)
+                && (StatementType.UPDATE != type) && (StatementType.DELETE != type)) {
+            if (type.isBarrier())
+                cache.clear();  // prepared SELECT * keeps stale columns after an ALTER
+            return null;
+        }
+        StatementNormalizer.Normalized normalized = StatementNormalizer.normalize(cql);
+        if (null == normalized) {
+            bypassed++;
+            return null;
+        }
+
+        String key = session.getLoggedKeyspace() + "/" + normalized.template;
+        PreparedStatement prepared;
+        boolean cached = cache.containsKey(key);
+        if (cached) {
+            prepared = cache.get(key);
+            if (null == prepared) {
+                bypassed++;
+                return null;
+            }
+        }
+        else {
+            misses++;
+            try {
+                prepared = session.prepare(normalized.template);
+            }
+            catch (DriverException de) {
+                // let the raw statement run so that the user sees the real error
+                prepared = null;
+            }
+            cache.put(key, prepared);
+            if (null == prepared)
+                return null;
+        }
+        BoundStatement bound = bind(prepared, normalized.literals);
+        if (null == bound)
+            bypassed++;  // e.g. a literal the codec cannot parse; the raw statement runs instead
+        else if (cached)
+            hits++;
+        return bound;
+    }
+
+    private BoundStatement bind(PreparedStatement prepared, List<String> literals) {
+        ColumnDefinitions variables = prepared.getVariables();
+        if (variables.size() != literals.size())
+            return null;
+        BoundStatement bound = prepared.bind();
+        try {
+            for (int i = 0; i < literals.size(); i++) {
+                TypeCodec<Object> codec = codecRegistry.codecFor(variables.getType(i));
+                bound.set(i, codec.parse(literals.get(i)), codec);
+            }
+        }
+        catch (InvalidTypeException ite) {
+            return null;
+        }
+        return bound;
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getBypassed() {
+        return bypassed;
+    }
+}
@@ -0,0 +1,192 @@
+package hessian.cqlish;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes results as a table, CSV, TSV or JSON lines, for output that goes
+ * to another program or a file rather than the terminal.  Rows are
+ * formatted straight from their bytes by CellFormatter and flushed once
+ * per page; nothing is colored.
+ *
+ * JSON comes from the node: forFormat() turns a SELECT into a SELECT JSON,
+ * whose rows are written as they are.  Other results (e.g. the [applied]
+ * row of a conditional update) are turned into JSON here.
+ */
+public class ResultWriter {
+    public enum Format {
+        TABLE, CSV, TSV, JSON;
+
+        // the format called name, or null if there is none
+        public static Format of(String name) {
+            for (Format format : values()) {
+                if (format.name().equalsIgnoreCase(name))
+                    return format;
+            }
+            return null;
+        }
+    }
+
+    private static final Pattern SELECT_PATTERN = Pattern.compile("^(\\s*SELECT\\s+)(?!JSON\\s)", Pattern.CASE_INSENSITIVE);
+    private static final String JSON_COLUMN = "[json]";
+    private static final char QUOTE = '"';
+    private static final String NULL = "";
+
+    private final Writer out;
+    private final Format format;
+    private final CodecRegistry codecRegistry;
+    private final ProtocolVersion protocolVersion;
+    private final StringBuilder line = new StringBuilder(1024);
+    private final StringBuilder cell = new StringBuilder(256);
+
+    public ResultWriter(Writer out, Format format, CodecRegistry codecRegistry, ProtocolVersion protocolVersion) {
+        this.out = out;
+        this.format = format;
+        this.codecRegistry = codecRegistry;
+        this.protocolVersion = protocolVersion;
+    }
+
+    /**
+     * cql as it should be run for format: a SELECT becomes a SELECT JSON
+     * for JSON, anything else is left alone.
+     */
+    public static String forFormat(String cql, Format format) {
+        if (Format.JSON != format)
+            return cql;
+        Matcher matcher = SELECT_PATTERN.matcher(cql);
+        return matcher.find() ? matcher.replaceFirst("$1JSON ") : cql;
+    }
+
+    /**
+     * Writes all rows of resultSet and returns how many were written.
+     */
+    public long write(ResultSet resultSet) throws IOException {
+        if (Format.TABLE == format)
+            return new TablePrinter(out, false, codecRegistry, protocolVersion).print(resultSet);
+
+        ColumnDefinitions cdefs = resultSet.getColumnDefinitions();
+        boolean json = Format.JSON == format;
+        boolean nodeJson = json && (1 == cdefs.size()) && JSON_COLUMN.equals(cdefs.getName(0));
+        char delimiter = (Format.TSV == format) ? '\t' : ',';
+        CellFormatter[] formatters = nodeJson ? null : CellFormatter.forColumns(cdefs, codecRegistry, protocolVersion, false);
+        String[] names = new String[cdefs.size()];
+        boolean[] quoted = new boolean[cdefs.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = cdefs.getName(i);
+            quoted[i] = !isJsonLiteral(cdefs.getType(i));
+        }
+        if (!json) {
+            line.setLength(0);
+            for (int i = 0; i < names.length; i++) {
+                if (0 != i)
+                    line.append(delimiter);
+                Csv.appendField(line, names[i], delimiter, QUOTE, NULL);
+            }
+            out.append(line).append('\n');
+        }
+
+        long numRows = 0;
+        while (!resultSet.isExhausted()) {
+            int pageRows = resultSet.getAvailableWithoutFetching();
+            for (int r = 0; r < pageRows; r++) {
+                Row row = resultSet.one();
+                line.setLength(0);
+                if (nodeJson)
+                    line.append(row.getString(0));
+                else if (json)
+                    appendJson(row, names, quoted, formatters);
+                else
+                    appendDelimited(row, delimiter, formatters);
+                line.append('\n');
+                out.append(line);
+            }
+            numRows += pageRows;
+            out.flush();
+        }
+        out.flush();
+        return numRows;
+    }
+
+    private void appendDelimited(Row row, char delimiter, CellFormatter[] formatters) {
+        for (int i = 0; i < formatters.length; i++) {
+            if (0 != i)
+                line.append(delimiter);
+            ByteBuffer bytes = row.getBytesUnsafe(i);
+            if (null == bytes) {
+                line.append(NULL);
+                continue;
+            }
+            cell.setLength(0);
+            formatters[i].format(bytes, cell);
+            Csv.appendField(line, cell, delimiter, QUOTE, NULL);
+        }
+    }
+
+    private void appendJson(Row row, String[] names, boolean[] quoted, CellFormatter[] formatters) {
+        line.append('{');
+        for (int i = 0; i < formatters.length; i++) {
+            if (0 != i)
+                line.append(", ");
+            appendJsonString(names[i]);
+            line.append(": ");
+            ByteBuffer bytes = row.getBytesUnsafe(i);
+            if (null == bytes) {
+                line.append("null");
+                continue;
+            }
+            cell.setLength(0);
+            formatters[i].format(bytes, cell);
+            if (quoted[i])
+                appendJsonString(cell);
+            else
+                line.append(cell);
+        }
+        line.append('}');
+    }
+
+    private void appendJsonString(CharSequence value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (('"' == c) || ('\\' == c))
+                line.append('\\').append(c);
+            else if ('\n' == c)
+                line.append("\\n");
+            else if ('\r' == c)
+                line.append("\\r");
+            else if ('\t' == c)
+                line.append("\\t");
+            else if (0x20 > c)
+                line.append(String.format("\\u%04x", (int)c));
+            else
+                line.append(c);
+        }
+        line.append('"');
+    }
+
+    // whether values of type are written the same in CQL and JSON
+    private static boolean isJsonLiteral(DataType type) {
+        switch (type.getName()) {
+            case INT:
+            case BIGINT:
+            case COUNTER:
+            case SMALLINT:
+            case TINYINT:
+            case VARINT:
+            case BOOLEAN:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package hessian.cqlish;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the statements of a script file: one statement per line, with
+ * blank lines and lines beginning with # skipped.  Keeps the line number
+ * of the last statement and roughly how many bytes have been read, for
+ * error messages and progress.
+ */
+public class ScriptReader implements Closeable {
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    private final BufferedReader in;
+    private long lineNumber = 0;
+    private long charsRead = 0;
+
+    public ScriptReader(Reader in) {
+        this.in = new BufferedReader(in, BUFFER_SIZE);
+    }
+
+    /**
+     * Returns the next statement, trimmed, or null at the end of the file.
+     */
+    public String next() throws IOException {
+        String line;
+        while (null != (line = in.readLine())) {
+            lineNumber++;
+            charsRead += line.length() + 1;
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#"))
+                return line;
+        }
+        return null;
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    public long getCharsRead() {
+        return charsRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
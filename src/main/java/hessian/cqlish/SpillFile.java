@@ -0,0 +1,287 @@
+package hessian.cqlish;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A result written to temporary files for the pager, so that its size is
+ * bounded by the disk rather than the heap.  The data file holds each row
+ * as its cells, formatted as in a table, each an int length (-1 for null)
+ * and that many bytes of UTF-8; the index file holds the offset of each
+ * row as a long.  Once written, both are memory-mapped and rows are read
+ * back only as they are shown.
+ *
+ * Mappings are limited to 2 GB, so the data is mapped in segments of at
+ * most SEGMENT_BYTES that start at row boundaries, and the index in
+ * segments of INDEX_SEGMENT_ROWS offsets.
+ */
+public class SpillFile implements Closeable {
+    public static final String NULL = "null";
+    private static final long SEGMENT_BYTES = 1L << 30;
+    private static final int INDEX_SEGMENT_SHIFT = 27;
+    private static final long INDEX_SEGMENT_ROWS = 1L << INDEX_SEGMENT_SHIFT;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int INDEX_BUFFER_SIZE = 1 << 16;
+
+    private final String[] names;
+    private final int[] widths;
+    private final File dataFile;
+    private final File indexFile;
+    private final FileChannel data;
+    private final FileChannel index;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer rowBytes = ByteBuffer.allocate(4096);
+    private byte[] scratch = new byte[256];
+    private long numRows = 0;
+    private long dataSize = 0;
+    private long[] segmentStarts;
+    private MappedByteBuffer[] dataSegments;
+    private MappedByteBuffer[] indexSegments;
+
+    private SpillFile(ColumnDefinitions cdefs) throws IOException {
+        names = new String[cdefs.size()];
+        widths = new int[cdefs.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = cdefs.getName(i);
+            widths[i] = names[i].length();
+        }
+        dataFile = File.createTempFile("cqlish-spill", ".rows");
+        indexFile = File.createTempFile("cqlish-spill", ".index");
+        dataFile.deleteOnExit();
+        indexFile.deleteOnExit();
+        data = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Writes all rows of resultSet to a new spill file, page by page, and
+     * maps it.
+     */
+    public static SpillFile spill(ResultSet resultSet, CodecRegistry codecRegistry, ProtocolVersion protocolVersion) throws IOException {
+        SpillFile spill = new SpillFile(resultSet.getColumnDefinitions());
+        try {
+            spill.write(resultSet, CellFormatter.forColumns(resultSet.getColumnDefinitions(), codecRegistry, protocolVersion));
+            spill.map();
+            return spill;
+        }
+        catch (IOException | RuntimeException e) {
+            spill.close();
+            throw e;
+        }
+    }
+
+    public String[] getNames() {
+        return names;
+    }
+
+    // the widest cell of each column, and its name, in chars
+    public int[] getWidths() {
+        return widths;
+    }
+
+    public long getRowCount() {
+        return numRows;
+    }
+
+    public long getByteCount() {
+        return dataSize;
+    }
+
+    /**
+     * Reads the cells of row into cells, with null for a null.
+     */
+    public void readRow(long row, String[] cells) {
+        long offset = rowOffset(row);
+        int segment = segmentOf(offset);
+        MappedByteBuffer buffer = dataSegments[segment];
+        int position = (int)(offset - segmentStarts[segment]);
+        for (int i = 0; i < cells.length; i++) {
+            int length = buffer.getInt(position);
+            position += 4;
+            if (0 > length) {
+                cells[i] = null;
+                continue;
+            }
+            if (scratch.length < length)
+                scratch = new byte[Math.max(length, 2 * scratch.length)];
+            for (int b = 0; b < length; b++)
+                scratch[b] = buffer.get(position + b);
+            cells[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            position += length;
+        }
+    }
+
+    /**
+     * The first row from fromRow on with a cell containing text, or -1.
+     */
+    public long find(String text, long fromRow) {
+        byte[] needle = text.getBytes(StandardCharsets.UTF_8);
+        for (long row = Math.max(0, fromRow); row < numRows; row++) {
+            long offset = rowOffset(row);
+            int segment = segmentOf(offset);
+            MappedByteBuffer buffer = dataSegments[segment];
+            int position = (int)(offset - segmentStarts[segment]);
+            for (int i = 0; i < names.length; i++) {
+                int length = buffer.getInt(position);
+                position += 4;
+                if (0 > length)
+                    continue;
+                if (contains(buffer, position, length, needle))
+                    return row;
+                position += length;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        dataSegments = null;
+        indexSegments = null;
+        try {
+            data.close();
+            index.close();
+        }
+        finally {
+            // on Unix the mappings stay readable until they are collected; elsewhere deleteOnExit() tries again
+            Files.deleteIfExists(dataFile.toPath());
+            Files.deleteIfExists(indexFile.toPath());
+        }
+    }
+
+    private void write(ResultSet resultSet, CellFormatter[] formatters) throws IOException {
+        StringBuilder cell = new StringBuilder(256);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        ByteBuffer offsets = ByteBuffer.allocateDirect(INDEX_BUFFER_SIZE);
+        List<Long> starts = new ArrayList<Long>();
+        starts.add(0L);
+        long segmentStart = 0;
+        while (!resultSet.isExhausted()) {
+            int pageRows = resultSet.getAvailableWithoutFetching();
+            for (int r = 0; r < pageRows; r++) {
+                encodeRow(resultSet.one(), formatters, cell);
+                int length = rowBytes.remaining();
+                if ((dataSize > segmentStart) && (dataSize + length - segmentStart > SEGMENT_BYTES)) {
+                    segmentStart = dataSize;
+                    starts.add(segmentStart);
+                }
+                if (!offsets.hasRemaining())
+                    drain(offsets, index);
+                offsets.putLong(dataSize);
+                if (buffer.remaining() < length)
+                    drain(buffer, data);
+                if (buffer.remaining() < length) {
+                    while (rowBytes.hasRemaining())
+                        data.write(rowBytes);
+                }
+                else {
+                    buffer.put(rowBytes);
+                }
+                dataSize += length;
+                numRows++;
+            }
+        }
+        drain(buffer, data);
+        drain(offsets, index);
+        segmentStarts = new long[starts.size()];
+        for (int i = 0; i < segmentStarts.length; i++)
+            segmentStarts[i] = starts.get(i);
+    }
+
+    // formats and encodes the cells of row into rowBytes, ready to be read
+    private void encodeRow(Row row, CellFormatter[] formatters, StringBuilder cell) {
+        rowBytes.clear();
+        for (int i = 0; i < formatters.length; i++) {
+            ByteBuffer bytes = row.getBytesUnsafe(i);
+            if (null == bytes) {
+                ensureRoom(4);
+                rowBytes.putInt(-1);
+                widths[i] = Math.max(widths[i], NULL.length());
+                continue;
+            }
+            cell.setLength(0);
+            formatters[i].format(bytes, cell);
+            widths[i] = Math.max(widths[i], cell.length());
+            // a char takes at most 3 bytes of UTF-8 (a surrogate pair takes 4)
+            ensureRoom(4 + 3 * cell.length());
+            int lengthAt = rowBytes.position();
+            rowBytes.putInt(0);
+            encoder.reset();
+            encoder.encode(CharBuffer.wrap(cell), rowBytes, true);
+            encoder.flush(rowBytes);
+            rowBytes.putInt(lengthAt, rowBytes.position() - lengthAt - 4);
+        }
+        rowBytes.flip();
+    }
+
+    private void ensureRoom(int n) {
+        if (rowBytes.remaining() >= n)
+            return;
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * rowBytes.capacity(), rowBytes.position() + n));
+        rowBytes.flip();
+        bigger.put(rowBytes);
+        rowBytes = bigger;
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    private void map() throws IOException {
+        dataSegments = new MappedByteBuffer[segmentStarts.length];
+        for (int i = 0; i < segmentStarts.length; i++) {
+            long end = (i + 1 < segmentStarts.length) ? segmentStarts[i + 1] : dataSize;
+            dataSegments[i] = data.map(FileChannel.MapMode.READ_ONLY, segmentStarts[i], end - segmentStarts[i]);
+        }
+        long indexSize = 8 * numRows;
+        indexSegments = new MappedByteBuffer[(int)((numRows + INDEX_SEGMENT_ROWS - 1) / INDEX_SEGMENT_ROWS)];
+        for (int i = 0; i < indexSegments.length; i++) {
+            long start = 8 * INDEX_SEGMENT_ROWS * i;
+            indexSegments[i] = index.map(FileChannel.MapMode.READ_ONLY, start, Math.min(indexSize - start, 8 * INDEX_SEGMENT_ROWS));
+        }
+    }
+
+    private long rowOffset(long row) {
+        return indexSegments[(int)(row >>> INDEX_SEGMENT_SHIFT)].getLong((int)(row & (INDEX_SEGMENT_ROWS - 1)) << 3);
+    }
+
+    private int segmentOf(long offset) {
+        int i = Arrays.binarySearch(segmentStarts, offset);
+        return (0 <= i) ? i : -i - 2;
+    }
+
+    private static boolean contains(ByteBuffer buffer, int position, int length, byte[] needle) {
+        for (int start = position; start <= position + length - needle.length; start++) {
+            int j = 0;
+            while ((j < needle.length) && (buffer.get(start + j) == needle[j]))
+                j++;
+            if (j == needle.length)
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,66 @@
+package hessian.cqlish;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the lines of a statement typed at the prompt until one ends
+ * with a semicolon.  The lines are joined with a space.
+ */
+public class StatementBuffer {
+    private final StringBuilder buffer = new StringBuilder(256);
+
+    /**
+     * Adds line (already trimmed).  Returns the whole statement if line
+     * ends it, and starts a new one; otherwise returns null.
+     */
+    public String add(String line) {
+        buffer.append(' ').append(line);
+        if (!line.endsWith(";"))
+            return null;
+        String statement = buffer.toString();
+        buffer.setLength(0);
+        return statement;
+    }
+
+    /**
+     * The statements in text (e.g. the argument of -e), split at the
+     * semicolons outside quotes, each on one line and ending with a
+     * semicolon.
+     */
+    public static List<String> split(String text) {
+        List<String> statements = new ArrayList<String>();
+        StringBuilder statement = new StringBuilder();
+        char quote = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (0 != quote) {
+                if (c == quote)
+                    quote = 0;
+            }
+            else if (('\'' == c) || ('"' == c)) {
+                quote = c;
+            }
+            else if (';' == c) {
+                String trimmed = statement.toString().trim();
+                if (!trimmed.isEmpty())
+                    statements.add(trimmed + ";");
+                statement.setLength(0);
+                continue;
+            }
+            statement.append(('\n' == c) || ('\r' == c) ? ' ' : c);
+        }
+        String trimmed = statement.toString().trim();
+        if (!trimmed.isEmpty())
+            statements.add(trimmed + ";");
+        return statements;
+    }
+
+    public boolean isEmpty() {
+        return 0 == buffer.length();
+    }
+
+    public void clear() {
+        buffer.setLength(0);
+    }
+}
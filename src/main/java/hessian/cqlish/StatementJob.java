@@ -0,0 +1,224 @@
+package hessian.cqlish;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * One statement run from the prompt, in the foreground or (with &amp;) in
+ * the background.  The request and each page fetch go through await(), so
+ * that cancel() can abandon whichever one is in flight; paging stops after
+ * the current page once cancelled.  While the job waits on the node,
+ * drawProgress() can show how long it has been running and how many rows
+ * it has fetched; the line is erased when the wait ends.
+ */
+public class StatementJob {
+    public final int id;
+    public final String cql;
+    public final boolean background;
+    public final long startNanos = System.nanoTime();
+
+    private volatile boolean cancelled = false;
+    private volatile long rowsFetched = 0;
+    private volatile long endNanos = 0;
+    private ListenableFuture<?> inFlight;
+    private Writer progressOut;  // where the progress line is drawn, if it is
+
+    public StatementJob(int id, String cql, boolean background) {
+        this.id = id;
+        this.cql = cql;
+        this.background = background;
+    }
+
+    /**
+     * Waits for future, the statement's request or one of its page
+     * fetches.  Returns null if the job is cancelled meanwhile.
+     */
+    public <T> T await(ListenableFuture<T> future) {
+        synchronized (this) {
+            if (cancelled) {
+                future.cancel(true);
+                return null;
+            }
+            inFlight = future;
+        }
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        }
+        catch (CancellationException ce) {
+            return null;
+        }
+        catch (ExecutionException ee) {
+            if (ee.getCause() instanceof DriverException)
+                throw ((DriverException)ee.getCause()).copy();
+            throw new DriverException("Unexpected error: " + ee.getCause(), ee.getCause());
+        }
+        finally {
+            synchronized (this) {
+                inFlight = null;
+                clearProgress();
+            }
+        }
+    }
+
+    /**
+     * The rows of resultSet, fetching each page through await(); the rows
+     * end early if the job is cancelled.
+     */
+    public ResultSet pages(ResultSet resultSet) {
+        rowsFetched = resultSet.getAvailableWithoutFetching();
+        return new CancellableResultSet(resultSet);
+    }
+
+    public synchronized void cancel() {
+        cancelled = true;
+        if (null != inFlight)
+            inFlight.cancel(true);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    public boolean isDone() {
+        return 0 != endNanos;
+    }
+
+    public long getRowsFetched() {
+        return rowsFetched;
+    }
+
+    public long getElapsedNanos() {
+        return (isDone() ? endNanos : System.nanoTime()) - startNanos;
+    }
+
+    /**
+     * Writes (or rewrites) the elapsed time and rows fetched on the current
+     * line, if the job is waiting on the node.
+     */
+    public synchronized void drawProgress(Writer out) throws IOException {
+        if (null == inFlight)
+            return;
+        out.write(String.format("\r  ... %.1f s, %d rows fetched (CTRL-C cancels)", getElapsedNanos() / 1e9, rowsFetched));
+        out.flush();
+        progressOut = out;
+    }
+
+    // erases the progress line, before the job prints
+    private void clearProgress() {
+        if (null == progressOut)
+            return;
+        try {
+            progressOut.write("\r\u001B[K");
+            progressOut.flush();
+        }
+        catch (IOException ioe) {
+            // the terminal is gone; nothing to erase
+        }
+        progressOut = null;
+    }
+
+    private class CancellableResultSet implements ResultSet {
+        private final ResultSet resultSet;
+
+        CancellableResultSet(ResultSet resultSet) {
+            this.resultSet = resultSet;
+        }
+
+        @Override
+        public boolean isExhausted() {
+            while (0 == resultSet.getAvailableWithoutFetching()) {
+                if (cancelled || resultSet.isFullyFetched())
+                    return true;
+                if (null == await(resultSet.fetchMoreResults()))
+                    return true;
+                rowsFetched += resultSet.getAvailableWithoutFetching();
+            }
+            return false;
+        }
+
+        @Override
+        public Row one() {
+            return isExhausted() ? null : resultSet.one();
+        }
+
+        @Override
+        public ColumnDefinitions getColumnDefinitions() {
+            return resultSet.getColumnDefinitions();
+        }
+
+        @Override
+        public boolean wasApplied() {
+            return resultSet.wasApplied();
+        }
+
+        @Override
+        public boolean isFullyFetched() {
+            return resultSet.isFullyFetched();
+        }
+
+        @Override
+        public int getAvailableWithoutFetching() {
+            return resultSet.getAvailableWithoutFetching();
+        }
+
+        @Override
+        public ListenableFuture<ResultSet> fetchMoreResults() {
+            return resultSet.fetchMoreResults();
+        }
+
+        @Override
+        public List<Row> all() {
+            List<Row> all = new ArrayList<Row>();
+            Row row;
+            while (null != (row = one()))
+                all.add(row);
+            return all;
+        }
+
+        @Override
+        public Iterator<Row> iterator() {
+            return new Iterator<Row>() {
+                @Override
+                public boolean hasNext() {
+                    return !isExhausted();
+                }
+
+                @Override
+                public Row next() {
+                    Row row = one();
+                    if (null == row)
+                        throw new NoSuchElementException();
+                    return row;
+                }
+            };
+        }
+
+        @Override
+        public ExecutionInfo getExecutionInfo() {
+            return resultSet.getExecutionInfo();
+        }
+
+        @Override
+        public List<ExecutionInfo> getAllExecutionInfo() {
+            return resultSet.getAllExecutionInfo();
+        }
+    }
+}
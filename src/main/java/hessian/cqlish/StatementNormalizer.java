@@ -0,0 +1,207 @@
+package hessian.cqlish;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pulls the literal values out of a CQL statement, replacing each with a
+ * bind marker, so that statements which differ only in their literals share
+ * one template.  Whitespace outside of strings is collapsed as well.
+ *
+ * Literals inside collection literals ({...} and [...]) and $$-quoted
+ * strings are left in place.  Statements which already contain bind
+ * markers are not normalized.
+ */
+public class StatementNormalizer {
+    public static class Normalized {
+        public final String template;
+        public final List<String> literals;
+
+        Normalized(String template, List<String> literals) {
+            this.template = template;
+            this.literals = literals;
+        }
+    }
+
+    /**
+     * Returns the normalized statement, or null if cql cannot be normalized.
+     */
+    public static Normalized normalize(String cql) {
+        StringBuilder template = new StringBuilder(cql.length());
+        List<String> literals = new ArrayList<String>();
+        int depth = 0;
+        int length = cql.length();
+        int i = 0;
+        while (i < length) {
+            char c = cql.charAt(i);
+            int end;
+            if (Character.isWhitespace(c)) {
+                while ((i < length) && Character.isWhitespace(cql.charAt(i)))
+                    i++;
+                if ((0 < template.length()) && (i < length))
+                    template.append(' ');
+                continue;
+            }
+            if ('\'' == c) {
+                end = endOfString(cql, i);
+                if (0 > end)
+                    return null;
+                literal(cql, i, end, depth, template, literals);
+            }
+            else if ('"' == c) {
+                end = cql.indexOf('"', i + 1);
+                while ((0 < end) && (end + 1 < length) && ('"' == cql.charAt(end + 1)))
+                    end = cql.indexOf('"', end + 2);
+                if (0 > end)
+                    return null;
+                end++;
+                template.append(cql, i, end);
+            }
+            else if (('$' == c) && cql.startsWith("$$", i)) {
+                end = cql.indexOf("$$", i + 2);
+                if (0 > end)
+                    return null;
+                end += 2;
+                template.append(cql, i, end);
+            }
+            else if (cql.startsWith("--", i) || cql.startsWith("//", i)) {
+                end = cql.indexOf('\n', i);
+                end = (0 > end) ? length : end;
+                template.append(cql, i, end);
+            }
+            else if (cql.startsWith("/*", i)) {
+                end = cql.indexOf("*/", i + 2);
+                end = (0 > end) ? length : end + 2;
+                template.append(cql, i, end);
+            }
+            else if (('?' == c) || ((':' == c) && (i + 1 < length) && Character.isLetter(cql.charAt(i + 1)))) {
+                return null;
+            }
+            else if (isUuidAt(cql, i)) {
+                end = i + 36;
+                literal(cql, i, end, depth, template, literals);
+            }
+            else if (('0' == c) && (i + 1 < length) && ('x' == Character.toLowerCase(cql.charAt(i + 1)))) {
+                end = i + 2;
+                while ((end < length) && (0 <= Character.digit(cql.charAt(end), 16)))
+                    end++;
+                literal(cql, i, end, depth, template, literals);
+            }
+            else if (Character.isDigit(c) || (('-' == c) && isNegativeNumber(cql, i, template))) {
+                end = endOfNumber(cql, ('-' == c) ? i + 1 : i);
+                if ((end < length) && isIdentifierChar(cql.charAt(end))) {
+                    // e.g. a duration like 1h30m, which is not a plain number
+                    while ((end < length) && isIdentifierChar(cql.charAt(end)))
+                        end++;
+                    template.append(cql, i, end);
+                }
+                else {
+                    literal(cql, i, end, depth, template, literals);
+                }
+            }
+            else if (Character.isLetter(c) || ('_' == c)) {
+                end = i;
+                while ((end < length) && isIdentifierChar(cql.charAt(end)))
+                    end++;
+                String word = cql.substring(i, end);
+                if (word.equalsIgnoreCase("true") || word.equalsIgnoreCase("false"))
+                    literal(cql, i, end, depth, template, literals);
+                else
+                    template.append(word);
+            }
+            else {
+                if (('{' == c) || ('[' == c))
+                    depth++;
+                else if ((('}' == c) || (']' == c)) && (0 < depth))
+                    depth--;
+                end = i + 1;
+                template.append(c);
+            }
+            i = end;
+        }
+        return new Normalized(template.toString(), literals);
+    }
+
+    private static void literal(String cql, int begin, int end, int depth, StringBuilder template, List<String> literals) {
+        if (0 < depth) {
+            template.append(cql, begin, end);
+        }
+        else {
+            template.append('?');
+            literals.add(cql.substring(begin, end));
+        }
+    }
+
+    // index just past the closing quote, or -1 if the string is not terminated
+    private static int endOfString(String cql, int begin) {
+        int i = begin + 1;
+        while (i < cql.length()) {
+            if ('\'' == cql.charAt(i)) {
+                if ((i + 1 < cql.length()) && ('\'' == cql.charAt(i + 1))) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private static int endOfNumber(String cql, int begin) {
+        int length = cql.length();
+        int i = begin;
+        while ((i < length) && Character.isDigit(cql.charAt(i)))
+            i++;
+        if ((i + 1 < length) && ('.' == cql.charAt(i)) && Character.isDigit(cql.charAt(i + 1))) {
+            i++;
+            while ((i < length) && Character.isDigit(cql.charAt(i)))
+                i++;
+        }
+        if ((i < length) && ('e' == Character.toLowerCase(cql.charAt(i)))) {
+            int j = i + 1;
+            if ((j < length) && (('+' == cql.charAt(j)) || ('-' == cql.charAt(j))))
+                j++;
+            if ((j < length) && Character.isDigit(cql.charAt(j))) {
+                i = j;
+                while ((i < length) && Character.isDigit(cql.charAt(i)))
+                    i++;
+            }
+        }
+        return i;
+    }
+
+    // a minus sign is part of the number unless it follows an operand
+    private static boolean isNegativeNumber(String cql, int i, StringBuilder template) {
+        if ((i + 1 >= cql.length()) || !Character.isDigit(cql.charAt(i + 1)))
+            return false;
+        int last = template.length() - 1;
+        if ((0 <= last) && (' ' == template.charAt(last)))
+            last--;
+        if (0 > last)
+            return true;
+        char prev = template.charAt(last);
+        return !(isIdentifierChar(prev) || ('?' == prev) || (')' == prev) || (']' == prev)
+                || ('}' == prev) || ('\'' == prev) || ('"' == prev));
+    }
+
+    private static boolean isUuidAt(String cql, int i) {
+        if ((i + 36 > cql.length()) || ((0 < i) && isIdentifierChar(cql.charAt(i - 1))))
+            return false;
+        for (int j = 0; j < 36; j++) {
+            char c = cql.charAt(i + j);
+            if ((8 == j) || (13 == j) || (18 == j) || (23 == j)) {
+                if ('-' != c)
+                    return false;
+            }
+            else if (0 > Character.digit(c, 16)) {
+                return false;
+            }
+        }
+        return (i + 36 == cql.length()) || !isIdentifierChar(cql.charAt(i + 36));
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || ('_' == c);
+    }
+}
@@ -0,0 +1,146 @@
+package hessian.cqlish;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Latency histograms (in nanoseconds) of the statements run in the session,
+ * one per statement type and one per normalized statement text, so that
+ * statements differing only in their literals share a histogram.  At most
+ * MAX_STATEMENTS texts are tracked; later new ones only count by type.
+ */
+public class StatementStats {
+    public static final int MAX_STATEMENTS = 1000;
+    public static final int TOP_STATEMENTS = 10;
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final double NANOS_PER_MS = 1000000.0;
+
+    private final Map<StatementType, Histogram> byType = new EnumMap<StatementType, Histogram>(StatementType.class);
+    private final Map<String, Histogram> byStatement = new LinkedHashMap<String, Histogram>();
+    private long untracked = 0;
+    private long startMillis = System.currentTimeMillis();
+
+    public synchronized void record(String cql, long nanos) {
+        histogram(byType, StatementType.of(cql)).recordValue(nanos);
+        String text = text(cql);
+        Histogram histogram = byStatement.get(text);
+        if ((null == histogram) && (MAX_STATEMENTS > byStatement.size()))
+            histogram = histogram(byStatement, text);
+        if (null == histogram)
+            untracked++;
+        else
+            histogram.recordValue(nanos);
+    }
+
+    public synchronized void reset() {
+        byType.clear();
+        byStatement.clear();
+        untracked = 0;
+        startMillis = System.currentTimeMillis();
+    }
+
+    public synchronized String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(" Statement latency (ms) since ").append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(startMillis))).append(":\n");
+        if (byType.isEmpty())
+            return sb.append("   no statements yet\n").toString();
+        sb.append(String.format("   %-8s %9s %9s %9s %9s %9s %9s %9s%n", "type", "count", "mean", "p50", "p95", "p99", "p99.9", "max"));
+        for (Map.Entry<StatementType, Histogram> entry : byType.entrySet())
+            sb.append(String.format("   %-8s %s%n", entry.getKey(), columns(entry.getValue())));
+
+        List<Map.Entry<String, Histogram>> top = new ArrayList<Map.Entry<String, Histogram>>(byStatement.entrySet());
+        top.sort((a, b) -> Double.compare(total(b.getValue()), total(a.getValue())));
+        sb.append(" Top statements by total time:\n");
+        sb.append(String.format("   %9s %9s %9s %9s %9s %9s %9s  %s%n", "count", "mean", "p50", "p95", "p99", "p99.9", "max", "statement"));
+        for (Map.Entry<String, Histogram> entry : top.subList(0, Math.min(TOP_STATEMENTS, top.size())))
+            sb.append(String.format("   %s  %s%n", columns(entry.getValue()), entry.getKey()));
+        if (TOP_STATEMENTS < top.size())
+            sb.append("   ... and ").append(top.size() - TOP_STATEMENTS).append(" more\n");
+        if (0 < untracked)
+            sb.append("   ").append(untracked).append(" statements not tracked individually (more than ")
+                    .append(MAX_STATEMENTS).append(" different statements)\n");
+        return sb.toString();
+    }
+
+    /**
+     * Writes every histogram to file in the HdrHistogram log format, as one
+     * interval from the start of the session (or the last reset) until
+     * now.  Type histograms are tagged with the type and statement
+     * histograms with statement-&lt;n&gt;; a comment before each gives its
+     * text.  Returns the number of histograms written.
+     */
+    public synchronized int export(File file) throws IOException {
+        long now = System.currentTimeMillis();
+        int written;
+        try (PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8")) {
+            HistogramLogWriter writer = new HistogramLogWriter(out);
+            writer.outputComment("cqlish statement latencies in nanoseconds (max in ms)");
+            writer.outputLogFormatVersion();
+            writer.outputStartTime(startMillis);
+            writer.setBaseTime(startMillis);
+            writer.outputLegend();
+            for (Map.Entry<StatementType, Histogram> entry : byType.entrySet())
+                output(writer, entry.getValue(), entry.getKey().name(), now);
+            int statement = 0;
+            for (Map.Entry<String, Histogram> entry : byStatement.entrySet()) {
+                String tag = "statement-" + ++statement;
+                writer.outputComment(tag + ": " + entry.getKey());
+                output(writer, entry.getValue(), tag, now);
+            }
+            written = byType.size() + statement;
+            if (out.checkError())
+                throw new IOException("could not write " + file);
+        }
+        return written;
+    }
+
+    private void output(HistogramLogWriter writer, Histogram histogram, String tag, long now) {
+        Histogram copy = histogram.copy();
+        copy.setTag(tag);
+        copy.setStartTimeStamp(startMillis);
+        copy.setEndTimeStamp(now);
+        writer.outputIntervalHistogram(copy);
+    }
+
+    // the normalized text of cql, on one line
+    private static String text(String cql) {
+        StatementNormalizer.Normalized normalized = StatementNormalizer.normalize(cql.trim());
+        String text = (null == normalized) ? cql.trim() : normalized.template;
+        return text.replaceAll("\\s+", " ").replaceAll("\\s*;$", "");
+    }
+
+    private static <K> Histogram histogram(Map<K, Histogram> histograms, K key) {
+        Histogram histogram = histograms.get(key);
+        if (null == histogram) {
+            histogram = new Histogram(SIGNIFICANT_DIGITS);
+            histograms.put(key, histogram);
+        }
+        return histogram;
+    }
+
+    private static double total(Histogram h) {
+        return h.getMean() * h.getTotalCount();
+    }
+
+    private static String columns(Histogram h) {
+        return String.format("%9d %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f", h.getTotalCount(),
+                h.getMean() / NANOS_PER_MS,
+                h.getValueAtPercentile(50) / NANOS_PER_MS,
+                h.getValueAtPercentile(95) / NANOS_PER_MS,
+                h.getValueAtPercentile(99) / NANOS_PER_MS,
+                h.getValueAtPercentile(99.9) / NANOS_PER_MS,
+                h.getMaxValue() / NANOS_PER_MS);
+    }
+}
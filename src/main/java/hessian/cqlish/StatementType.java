@@ -0,0 +1,51 @@
+package hessian.cqlish;
+
+/**
+ * Coarse classification of a CQL statement by its leading keyword.
+ */
+public enum StatementType {
+    SELECT, INSERT, UPDATE, DELETE, BATCH, DDL, USE, OTHER;
+
+    public static StatementType of(String cql) {
+        String keyword = firstWord(cql);
+        if (keyword.equalsIgnoreCase("select"))
+            return SELECT;
+        if (keyword.equalsIgnoreCase("insert"))
+            return INSERT;
+        if (keyword.equalsIgnoreCase("update"))
+            return UPDATE;
+        if (keyword.equalsIgnoreCase("delete"))
+            return DELETE;
+        if (keyword.equalsIgnoreCase("begin") || keyword.equalsIgnoreCase("apply"))
+            return BATCH;
+        if (keyword.equalsIgnoreCase("use"))
+            return USE;
+        if (keyword.equalsIgnoreCase("create")
+                || keyword.equalsIgnoreCase("alter")
+                || keyword.equalsIgnoreCase("drop")
+                || keyword.equalsIgnoreCase("truncate")
+                || keyword.equalsIgnoreCase("grant")
+                || keyword.equalsIgnoreCase("revoke"))
+            return DDL;
+        return OTHER;
+    }
+
+    /**
+     * Statements that change the schema or the session's keyspace, and so
+     * must not be reordered with the statements around them.
+     */
+    public boolean isBarrier() {
+        return (DDL == this) || (USE == this) || (OTHER == this);
+    }
+
+    private static String firstWord(String cql) {
+        int begin = 0;
+        int length = cql.length();
+        while ((begin < length) && Character.isWhitespace(cql.charAt(begin)))
+            begin++;
+        int end = begin;
+        while ((end < length) && Character.isLetter(cql.charAt(end)))
+            end++;
+        return cql.substring(begin, end);
+    }
+}
@@ -0,0 +1,258 @@
+package hessian.cqlish;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnMetadata;
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TableMetadata;
+import com.datastax.driver.core.TokenRange;
+import com.datastax.driver.core.exceptions.DriverException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * COPY ... TO: exports a table to a CSV or JSON-lines file.
+ * The token ring is split into sub-ranges which are scanned concurrently
+ * with paged token-range queries.  Each range streams its rows into its own
+ * part file, and the parts are appended to the output file in token order
+ * when all ranges are done, so memory use does not depend on table size.
+ */
+public class TableExporter {
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+    public static final int RANGES_PER_WORKER = 4;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private final CqlishApplication app;
+    private final Session session;
+    private final CopyCommand command;
+    private final char delimiter;
+    private final char quote;
+    private final String nullValue;
+    private final boolean header;
+    private final boolean json;
+    private final int workers;
+    private final int pageSize;
+
+    private final AtomicLong rowsExported = new AtomicLong(0);
+    private List<String> columns;
+    private PreparedStatement select;
+
+    public TableExporter(CqlishApplication app, Session session, CopyCommand command) {
+        this.app = app;
+        this.session = session;
+        this.command = command;
+        this.delimiter = command.charOption("DELIMITER", ',');
+        this.quote = command.charOption("QUOTE", '"');
+        this.nullValue = command.option("NULL", "");
+        this.header = command.booleanOption("HEADER", false);
+        this.json = command.option("FORMAT", "csv").equalsIgnoreCase("json");
+        this.workers = Math.max(1, command.intOption("NUMPROCESSES", Runtime.getRuntime().availableProcessors()));
+        this.pageSize = Math.max(1, command.intOption("PAGESIZE", DEFAULT_PAGE_SIZE));
+    }
+
+    /**
+     * Exports the table, printing progress as it goes.  Returns false if
+     * the export failed.
+     */
+    public boolean export() throws IOException {
+        if (!prepare())
+            return false;
+
+        List<TokenRange> ranges = splitRing(workers * RANGES_PER_WORKER);
+        app.println(CqlishApplication.ANSI_YELLOW, "Exporting " + command.qualifiedTable() + " to " + command.file
+                + " (" + ranges.size() + " token ranges, " + workers + " workers):");
+        File outfile = new File(command.file);
+        List<File> parts = new ArrayList<File>(ranges.size());
+        List<Future<?>> futures = new ArrayList<Future<?>>(ranges.size());
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        long begin = System.currentTimeMillis();
+        boolean success = false;
+        try {
+            for (int i = 0; i < ranges.size(); i++) {
+                final TokenRange range = ranges.get(i);
+                final File part = new File(outfile.getAbsolutePath() + ".part" + i);
+                parts.add(part);
+                futures.add(pool.submit(() -> {
+                    exportRange(range, part);
+                    return null;
+                }));
+            }
+            pool.shutdown();
+            long nextProgress = begin + CqlishApplication.PROGRESS_INTERVAL_MS;
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get(100, TimeUnit.MILLISECONDS);
+                        break;
+                    }
+                    catch (TimeoutException te) {
+                        long now = System.currentTimeMillis();
+                        if (now >= nextProgress) {
+                            app.println(CqlishApplication.ANSI_YELLOW, String.format("  %d rows exported, %.0f rows/sec",
+                                    rowsExported.get(), rowsExported.get() * 1000.0 / (now - begin)));
+                            nextProgress = now + CqlishApplication.PROGRESS_INTERVAL_MS;
+                        }
+                    }
+                }
+            }
+            merge(outfile, parts);
+            success = true;
+        }
+        catch (ExecutionException ee) {
+            app.println(CqlishApplication.ANSI_RED, "ERROR: export failed: " + ee.getCause().getMessage());
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            app.println(CqlishApplication.ANSI_RED, "ERROR: interrupted exporting " + command.qualifiedTable());
+        }
+        finally {
+            pool.shutdownNow();
+            for (File part : parts)
+                Files.deleteIfExists(part.toPath());
+        }
+        if (!success)
+            return false;
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - begin);
+        app.println(CqlishApplication.ANSI_YELLOW, String.format("Exported %d rows from %s in %d ms (%.0f rows/sec)",
+                rowsExported.get(), command.qualifiedTable(), elapsed, rowsExported.get() * 1000.0 / elapsed));
+        return true;
+    }
+
+    private boolean prepare() throws IOException {
+        KeyspaceMetadata km = session.getCluster().getMetadata().getKeyspace(command.keyspace);
+        TableMetadata tm = (null == km) ? null : km.getTable(command.table);
+        if (null == tm) {
+            app.println(CqlishApplication.ANSI_RED, "ERROR: table (" + command.qualifiedTable() + ") not found");
+            return false;
+        }
+
+        columns = new ArrayList<String>(command.columns);
+        if (columns.isEmpty()) {
+            for (ColumnMetadata cm : tm.getColumns())
+                columns.add(Metadata.quoteIfNecessary(cm.getName()));
+        }
+        StringBuilder partitionKey = new StringBuilder();
+        for (ColumnMetadata cm : tm.getPartitionKey())
+            partitionKey.append((0 == partitionKey.length()) ? "" : ", ").append(Metadata.quoteIfNecessary(cm.getName()));
+        StringBuilder cql = new StringBuilder(json ? "SELECT JSON " : "SELECT ");
+        for (int i = 0; i < columns.size(); i++)
+            cql.append((0 == i) ? "" : ", ").append(columns.get(i));
+        cql.append(" FROM ").append(command.qualifiedTable())
+                .append(" WHERE token(").append(partitionKey).append(") > ?")
+                .append(" AND token(").append(partitionKey).append(") <= ?");
+        try {
+            select = session.prepare(cql.toString());
+        }
+        catch (DriverException de) {
+            app.println(CqlishApplication.ANSI_RED, "ERROR: could not prepare " + cql + ": " + de.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    // splits the ring into about n non-wrapping ranges, in token order
+    private List<TokenRange> splitRing(int n) {
+        List<TokenRange> ringRanges = new ArrayList<TokenRange>(session.getCluster().getMetadata().getTokenRanges());
+        int splitsPerRange = Math.max(1, n / ringRanges.size());
+        List<TokenRange> ranges = new ArrayList<TokenRange>();
+        for (TokenRange ringRange : ringRanges) {
+            for (TokenRange split : ringRange.splitEvenly(splitsPerRange))
+                ranges.addAll(split.unwrap());
+        }
+        Collections.sort(ranges);
+        return ranges;
+    }
+
+    private void exportRange(TokenRange range, File part) throws IOException {
+        CodecRegistry codecRegistry = session.getCluster().getConfiguration().getCodecRegistry();
+        ProtocolVersion protocolVersion = session.getCluster().getConfiguration().getProtocolOptions().getProtocolVersion();
+        BoundStatement bound = select.bind().setToken(0, range.getStart()).setToken(1, range.getEnd());
+        bound.setFetchSize(pageSize);
+        ResultSet resultSet = session.execute(bound);
+        CellFormatter[] formatters = json ? null : CellFormatter.forColumns(resultSet.getColumnDefinitions(), codecRegistry, protocolVersion, false);
+        StringBuilder line = new StringBuilder(1024);
+        StringBuilder cell = new StringBuilder(256);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(
+                FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)),
+                StandardCharsets.UTF_8), WRITE_BUFFER_SIZE)) {
+            while (!resultSet.isExhausted()) {
+                int pageRows = resultSet.getAvailableWithoutFetching();
+                for (int r = 0; r < pageRows; r++) {
+                    Row row = resultSet.one();
+                    line.setLength(0);
+                    if (json) {
+                        line.append(row.getString(0));
+                    }
+                    else {
+                        for (int i = 0; i < formatters.length; i++) {
+                            if (0 != i)
+                                line.append(delimiter);
+                            ByteBuffer bytes = row.getBytesUnsafe(i);
+                            if (null == bytes) {
+                                line.append(nullValue);
+                                continue;
+                            }
+                            cell.setLength(0);
+                            formatters[i].format(bytes, cell);
+                            Csv.appendField(line, cell, delimiter, quote, nullValue);
+                        }
+                    }
+                    line.append('\n');
+                    out.append(line);
+                }
+                rowsExported.addAndGet(pageRows);
+            }
+        }
+    }
+
+    private void merge(File outfile, List<File> parts) throws IOException {
+        try (FileChannel out = FileChannel.open(outfile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (header && !json) {
+                StringBuilder line = new StringBuilder();
+                for (int i = 0; i < columns.size(); i++) {
+                    if (0 != i)
+                        line.append(delimiter);
+                    Csv.appendField(line, columns.get(i), delimiter, quote, nullValue);
+                }
+                line.append('\n');
+                ByteBuffer bytes = StandardCharsets.UTF_8.encode(line.toString());
+                while (bytes.hasRemaining())
+                    out.write(bytes);
+            }
+            for (File part : parts) {
+                try (FileChannel in = FileChannel.open(part.toPath(), StandardOpenOption.READ)) {
+                    long size = in.size();
+                    for (long position = 0; position < size; )
+                        position += in.transferTo(position, size - position, out);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package hessian.cqlish;
+
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Prints a ResultSet as a padded table, one page at a time.
+ * The cells of the current page are formatted into a single reused buffer
+ * and only their offsets are kept, so printing does no per-cell or per-row
+ * allocation.  Column widths come from the first page and the header is
+ * printed again whenever a later page widens a column.
+ */
+public class TablePrinter {
+    private static final String NULL = "null";
+
+    private final Writer out;
+    private final CodecRegistry codecRegistry;
+    private final ProtocolVersion protocolVersion;
+    private final String headerColor;
+    private final String nullColor;
+    private final String colorReset;
+
+    private final StringBuilder cells = new StringBuilder(1 << 16);
+    private final StringBuilder line = new StringBuilder(1024);
+    private int[] cellEnds = new int[1024];
+    private char[] chars = new char[1024];
+
+    public TablePrinter(Writer out, boolean ansi, CodecRegistry codecRegistry, ProtocolVersion protocolVersion) {
+        this.out = out;
+        this.codecRegistry = codecRegistry;
+        this.protocolVersion = protocolVersion;
+        this.headerColor = ansi ? CqlishApplication.ANSI_GREEN : "";
+        this.nullColor = ansi ? CqlishApplication.ANSI_MAGENTA : "";
+        this.colorReset = ansi ? CqlishApplication.ANSI_RESET : "";
+    }
+
+    /**
+     * Prints all rows of resultSet and returns how many were printed.
+     */
+    public long print(ResultSet resultSet) throws IOException {
+        ColumnDefinitions cdefs = resultSet.getColumnDefinitions();
+        CellFormatter[] formatters = CellFormatter.forColumns(cdefs, codecRegistry, protocolVersion);
+        int numCols = formatters.length;
+        String[] names = new String[numCols];
+        int[] widths = new int[numCols];
+        for (int i = 0; i < numCols; i++) {
+            names[i] = cdefs.getName(i);
+            widths[i] = names[i].length();
+        }
+
+        long numRows = 0;
+        boolean headerPrinted = false;
+        while (!resultSet.isExhausted()) {
+            int pageRows = resultSet.getAvailableWithoutFetching();
+            if (cellEnds.length < pageRows * numCols)
+                cellEnds = Arrays.copyOf(cellEnds, pageRows * numCols);
+            cells.setLength(0);
+
+            // A cell end of -1 marks a null; cells are contiguous so the start
+            // of a cell is the end of the previous non-null cell.
+            boolean widened = false;
+            for (int r = 0, c = 0; r < pageRows; r++) {
+                Row row = resultSet.one();
+                for (int i = 0; i < numCols; i++, c++) {
+                    ByteBuffer bytes = row.getBytesUnsafe(i);
+                    int start = cells.length();
+                    int len;
+                    if (null == bytes) {
+                        cellEnds[c] = -1;
+                        len = NULL.length();
+                    }
+                    else {
+                        formatters[i].format(bytes, cells);
+                        cellEnds[c] = cells.length();
+                        len = cellEnds[c] - start;
+                    }
+                    if (len > widths[i]) {
+                        widths[i] = len;
+                        widened = true;
+                    }
+                }
+            }
+
+            if (!headerPrinted || widened) {
+                if (headerPrinted)
+                    out.write('\n');
+                printHeader(names, widths);
+                headerPrinted = true;
+            }
+            printPage(pageRows, widths);
+            numRows += pageRows;
+            out.flush();
+        }
+        if (!headerPrinted)
+            printHeader(names, widths);
+        out.flush();
+        return numRows;
+    }
+
+    private void printHeader(String[] names, int[] widths) throws IOException {
+        line.setLength(0);
+        for (int i = 0; i < names.length; i++) {
+            line.append((0 == i) ? " " : "| ").append(headerColor);
+            pad(widths[i] - names[i].length());
+            line.append(names[i]).append(colorReset).append(' ');
+        }
+        line.append('\n');
+        for (int i = 0; i < widths.length; i++) {
+            if (0 != i)
+                line.append('+');
+            for (int j = 0; j < widths[i] + 2; j++)
+                line.append('-');
+        }
+        line.append('\n');
+        write(line);
+    }
+
+    private void printPage(int pageRows, int[] widths) throws IOException {
+        int numCols = widths.length;
+        int start = 0;
+        for (int r = 0, c = 0; r < pageRows; r++) {
+            line.setLength(0);
+            for (int i = 0; i < numCols; i++, c++) {
+                line.append((0 == i) ? " " : "| ");
+                int end = cellEnds[c];
+                if (-1 == end) {
+                    line.append(nullColor);
+                    pad(widths[i] - NULL.length());
+                    line.append(NULL).append(' ').append(colorReset);
+                }
+                else {
+                    pad(widths[i] - (end - start));
+                    line.append(cells, start, end).append(' ');
+                    start = end;
+                }
+            }
+            line.append('\n');
+            write(line);
+        }
+    }
+
+    private void pad(int n) {
+        for (int i = 0; i < n; i++)
+            line.append(' ');
+    }
+
+    // Writer.append() would copy the builder into a new String
+    private void write(StringBuilder sb) throws IOException {
+        if (chars.length < sb.length())
+            chars = new char[Math.max(sb.length(), 2 * chars.length)];
+        sb.getChars(0, sb.length(), chars, 0);
+        out.write(chars, 0, sb.length());
+    }
+}
@@ -0,0 +1,74 @@
+package hessian.cqlish;
+
+import com.datastax.driver.core.QueryTrace;
+
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renders a query trace as a timeline of its events (microseconds since
+ * the request reached each node, thread and activity) and a summary of
+ * the work the read did, taken from Cassandra's trace messages.
+ */
+public class TraceRenderer {
+    private static final Pattern SINGLE_PARTITION_PATTERN = Pattern.compile("^Executing single-partition query on ");
+    private static final Pattern MERGED_PATTERN = Pattern.compile("^Merged data from memtables and (\\d+) sstables");
+    private static final Pattern SEQ_SCAN_PATTERN = Pattern.compile("^Executing seq scan across (\\d+) sstables");
+    private static final Pattern SSTABLE_READ_PATTERN = Pattern.compile("^(?:Partition index with \\d+ entries found|Key cache hit) for sstable (\\d+)");
+    private static final Pattern READ_PATTERN = Pattern.compile("^Read (\\d+) live rows and (\\d+) tombstone cells");
+
+    public static String render(QueryTrace trace) {
+        List<QueryTrace.Event> events = trace.getEvents();
+        Set<InetAddress> sources = new HashSet<InetAddress>();
+        int threadWidth = "thread".length();
+        for (QueryTrace.Event event : events) {
+            sources.add(event.getSource());
+            threadWidth = Math.max(threadWidth, event.getThreadName().length());
+        }
+        boolean showSource = 1 < sources.size();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(" Tracing session %s: %s on %s%n", trace.getTraceId(), trace.getRequestType(), trace.getCoordinator().getHostAddress()));
+        sb.append(String.format("   %11s  %s%-" + threadWidth + "s  %s%n", "elapsed(us)", showSource ? String.format("%-15s  ", "source") : "", "thread", "activity"));
+        long partitions = 0;
+        long rangeScans = 0;
+        long sstables = 0;
+        Set<String> sstablesRead = new HashSet<String>();
+        long liveRows = 0;
+        long tombstones = 0;
+        for (QueryTrace.Event event : events) {
+            String activity = event.getDescription();
+            sb.append(String.format("   %11d  %s%-" + threadWidth + "s  %s%n", event.getSourceElapsedMicros(),
+                    showSource ? String.format("%-15s  ", event.getSource().getHostAddress()) : "", event.getThreadName(), activity));
+            Matcher m;
+            if (SINGLE_PARTITION_PATTERN.matcher(activity).find()) {
+                partitions++;
+            }
+            else if ((m = MERGED_PATTERN.matcher(activity)).find()) {
+                sstables += Long.parseLong(m.group(1));
+            }
+            else if ((m = SEQ_SCAN_PATTERN.matcher(activity)).find()) {
+                rangeScans++;
+                sstables += Long.parseLong(m.group(1));
+            }
+            else if ((m = SSTABLE_READ_PATTERN.matcher(activity)).find()) {
+                sstablesRead.add(event.getSource() + "/" + m.group(1));
+            }
+            else if ((m = READ_PATTERN.matcher(activity)).find()) {
+                liveRows += Long.parseLong(m.group(1));
+                tombstones += Long.parseLong(m.group(2));
+            }
+        }
+        // timestamp-ordered reads do not report a merge, so count the sstables they looked into
+        sstables = Math.max(sstables, sstablesRead.size());
+        Integer duration = trace.getDurationMicros();
+        sb.append(String.format(" Summary: %s at the coordinator, %d partitions read%s, %d sstables touched, %d live rows, %d tombstones scanned%n",
+                (null == duration) ? "unknown time" : duration + " us", partitions,
+                (0 == rangeScans) ? "" : " (and " + rangeScans + " range scans)", sstables, liveRows, tombstones));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,241 @@
+package hessian.cqlish;
+
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.LocalDate;
+import com.datastax.driver.core.utils.UUIDs;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates values for bind markers.  A value depends only on the
+ * generator's seed and the iteration number, so generators can be shared by
+ * threads and the same seed always gives the same values.
+ *
+ * Generators are named by a spec: seq, int [bound], uuid, text [length],
+ * or chosen from the bound column's type (integers count up from 0, text is
+ * DEFAULT_TEXT_LENGTH random characters, and so on).  Text is at most
+ * MAX_TEXT_LENGTH characters.
+ */
+public abstract class ValueGenerator {
+    public static final int DEFAULT_TEXT_LENGTH = 16;
+    public static final int MAX_TEXT_LENGTH = 1 << 20;
+    public static final long BASE_TIMESTAMP = 1500000000000L;
+    private static final Pattern SPEC_PATTERN = Pattern.compile("^\\s*(\\w+)(?:\\s+(\\d{1,9}))?\\s*$");
+    private static final char[] TEXT_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
+
+    protected final long seed;
+    private final String description;
+
+    protected ValueGenerator(long seed, String description) {
+        this.seed = seed;
+        this.description = description;
+    }
+
+    public abstract Object next(long iteration);
+
+    public String toString() {
+        return description;
+    }
+
+    // a well-mixed random long for the iteration (the SplitMix64 finalizer)
+    protected long random(long iteration, int salt) {
+        long z = seed + (iteration * 4 + salt) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns the generator named by spec, or null if there is none.
+     */
+    public static ValueGenerator parse(String spec, long seed) {
+        Matcher m = SPEC_PATTERN.matcher(spec);
+        if (!m.matches())
+            return null;
+        String name = m.group(1).toLowerCase();
+        int size = (null == m.group(2)) ? 0 : Integer.parseInt(m.group(2));
+        switch (name) {
+            case "seq":
+            case "sequence":
+                return sequence(seed);
+            case "int":
+                return randomInt(seed, size);
+            case "uuid":
+                return uuid(seed);
+            case "text":
+                if (MAX_TEXT_LENGTH < size)
+                    return null;
+                return text(seed, (0 < size) ? size : DEFAULT_TEXT_LENGTH);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns a generator suited to type, or null if there is none.
+     */
+    public static ValueGenerator forType(DataType type, long seed) {
+        switch (type.getName()) {
+            case TINYINT:
+            case SMALLINT:
+            case INT:
+            case BIGINT:
+            case VARINT:
+            case COUNTER:
+                return sequence(seed);
+            case UUID:
+                return uuid(seed);
+            case TIMEUUID:
+                return new ValueGenerator(seed, "timeuuid") {
+                    public Object next(long iteration) {
+                        return UUIDs.startOf(BASE_TIMESTAMP + iteration);
+                    }
+                };
+            case TEXT:
+            case VARCHAR:
+            case ASCII:
+                return text(seed, DEFAULT_TEXT_LENGTH);
+            case FLOAT:
+            case DOUBLE:
+            case DECIMAL:
+                return new ValueGenerator(seed, "double") {
+                    public Object next(long iteration) {
+                        return (random(iteration, 0) >>> 11) * 0x1.0p-53;
+                    }
+                };
+            case BOOLEAN:
+                return new ValueGenerator(seed, "boolean") {
+                    public Object next(long iteration) {
+                        return 0 != (random(iteration, 0) & 1);
+                    }
+                };
+            case TIMESTAMP:
+            case DATE:
+                return new ValueGenerator(seed, "timestamp") {
+                    public Object next(long iteration) {
+                        return new Date(BASE_TIMESTAMP + iteration * 1000);
+                    }
+                };
+            case BLOB:
+                return new ValueGenerator(seed, "blob") {
+                    public Object next(long iteration) {
+                        ByteBuffer bytes = ByteBuffer.allocate(16);
+                        bytes.putLong(0, random(iteration, 0)).putLong(8, random(iteration, 1));
+                        return bytes;
+                    }
+                };
+            default:
+                return null;
+        }
+    }
+
+    public static ValueGenerator sequence(long seed) {
+        return new ValueGenerator(seed, "seq") {
+            public Object next(long iteration) {
+                return iteration;
+            }
+        };
+    }
+
+    public static ValueGenerator randomInt(long seed, final int bound) {
+        return new ValueGenerator(seed, (0 < bound) ? "int " + bound : "int") {
+            public Object next(long iteration) {
+                long r = random(iteration, 0);
+                return (0 < bound) ? (int)((r >>> 1) % bound) : (int)r;
+            }
+        };
+    }
+
+    public static ValueGenerator uuid(long seed) {
+        return new ValueGenerator(seed, "uuid") {
+            public Object next(long iteration) {
+                // a version 4 (random) UUID
+                long msb = (random(iteration, 0) & ~0xF000L) | 0x4000L;
+                long lsb = (random(iteration, 1) & ~(0xC000000000000000L)) | 0x8000000000000000L;
+                return new UUID(msb, lsb);
+            }
+        };
+    }
+
+    public static ValueGenerator text(long seed, final int length) {
+        return new ValueGenerator(seed, "text " + length) {
+            public Object next(long iteration) {
+                char[] chars = new char[length];
+                long r = 0;
+                for (int i = 0; i < length; i++) {
+                    if (0 == i % 10)
+                        r = random(iteration, i / 10);
+                    chars[i] = TEXT_CHARS[(int)((r >>> 1) % TEXT_CHARS.length)];
+                    r /= TEXT_CHARS.length;
+                }
+                return new String(chars);
+            }
+        };
+    }
+
+    /**
+     * Converts a generated value to the Java type the driver expects for
+     * type.  Throws IllegalArgumentException if it cannot.
+     */
+    public static Object convert(Object value, DataType type) {
+        switch (type.getName()) {
+            case TINYINT:
+                return ((Number)number(value, type)).byteValue();
+            case SMALLINT:
+                return ((Number)number(value, type)).shortValue();
+            case INT:
+                return ((Number)number(value, type)).intValue();
+            case BIGINT:
+            case COUNTER:
+                return ((Number)number(value, type)).longValue();
+            case VARINT:
+                return BigInteger.valueOf(((Number)number(value, type)).longValue());
+            case FLOAT:
+                return ((Number)number(value, type)).floatValue();
+            case DOUBLE:
+                return ((Number)number(value, type)).doubleValue();
+            case DECIMAL:
+                return BigDecimal.valueOf(((Number)number(value, type)).doubleValue());
+            case TEXT:
+            case VARCHAR:
+            case ASCII:
+                return value.toString();
+            case TIMESTAMP:
+                return (value instanceof Number) ? new Date(BASE_TIMESTAMP + ((Number)value).longValue() * 1000) : value;
+            case DATE:
+                if (value instanceof Date)
+                    return LocalDate.fromMillisSinceEpoch(((Date)value).getTime());
+                if (value instanceof Number)
+                    return LocalDate.fromDaysSinceEpoch(((Number)value).intValue());
+                return value;
+            case INET:
+                if (value instanceof Number) {
+                    try {
+                        return InetAddress.getByAddress(ByteBuffer.allocate(4).putInt(((Number)value).intValue()).array());
+                    }
+                    catch (UnknownHostException uhe) {
+                        throw new IllegalArgumentException(uhe);
+                    }
+                }
+                return value;
+            default:
+                return value;
+        }
+    }
+
+    private static Object number(Object value, DataType type) {
+        if (value instanceof Number)
+            return value;
+        if (value instanceof Boolean)
+            return ((Boolean)value) ? 1 : 0;
+        throw new IllegalArgumentException("cannot bind " + value.getClass().getSimpleName() + " to " + type);
+    }
+}
@@ -5,10 +5,17 @@ import com.datastax.driver.core.QueryOptions;
 import com.datastax.driver.core.Session;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Directories;
 import org.apache.cassandra.db.commitlog.CommitLog;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.io.FSWriteError;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.SSTable;
+import org.apache.cassandra.io.sstable.format.SSTableWriter;
 import org.apache.cassandra.service.CassandraDaemon;
+import org.apache.cassandra.service.StorageService;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
@@ -24,12 +31,16 @@ import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.ServerSocket;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Predicate;
@@ -58,6 +69,11 @@ public class RestartableEmbeddedCassandraServerHelper {
     private static final String INTERNAL_CASSANDRA_SCHEMA_KEYSPACE = "system_schema";
     private static final String INTERNAL_CASSANDRA_TRACES_KEYSPACE = "system_traces";
 
+    /** Staged sstables are renamed into the data directory above any generation a flush will use soon */
+    private static final int STAGED_GENERATION_BASE = 1000000000;
+    /** Directories being deleted in the background are renamed to &lt;name&gt;.old-&lt;millis&gt; */
+    private static final String ASIDE_SUFFIX = ".old-";
+
     private static final Set<String> systemKeyspaces = new HashSet<>(Arrays.asList(INTERNAL_CASSANDRA_KEYSPACE,
             INTERNAL_CASSANDRA_AUTH_KEYSPACE, INTERNAL_CASSANDRA_DISTRIBUTED_KEYSPACE,
             INTERNAL_CASSANDRA_SCHEMA_KEYSPACE, INTERNAL_CASSANDRA_TRACES_KEYSPACE));
@@ -68,6 +84,7 @@ public class RestartableEmbeddedCassandraServerHelper {
 
     private static CassandraDaemon cassandraDaemon = null;
     private static String launchedYamlFile;
+    private static String launchedTmpDir = DEFAULT_TMP_DIR;
     private static com.datastax.driver.core.Cluster cluster;
     private static Session session;
 
@@ -92,6 +109,17 @@ public class RestartableEmbeddedCassandraServerHelper {
     }
 
     public static void startEmbeddedCassandra(String yamlFile, String tmpDir, long timeout) throws TTransportException, IOException, ConfigurationException {
+        startEmbeddedCassandra(yamlFile, tmpDir, timeout, Collections.emptyMap());
+    }
+
+    /**
+     * Starts embedded cassandra with the default configuration, overriding the given settings in the copied yaml.
+     */
+    public static void startEmbeddedCassandra(Map<String, String> yamlSettings) throws TTransportException, IOException, ConfigurationException {
+        startEmbeddedCassandra(DEFAULT_CASSANDRA_YML_FILE, DEFAULT_TMP_DIR, DEFAULT_STARTUP_TIMEOUT, yamlSettings);
+    }
+
+    public static void startEmbeddedCassandra(String yamlFile, String tmpDir, long timeout, Map<String, String> yamlSettings) throws TTransportException, IOException, ConfigurationException {
         if (cassandraDaemon != null) {
             /* nothing to do Cassandra is already started */
             return;
@@ -103,7 +131,7 @@ public class RestartableEmbeddedCassandraServerHelper {
 
         //rmdir(tmpDir);  // Don't delete - allows for restarting
         File file = copy(yamlFile, tmpDir).toFile();
-        readAndAdaptYaml(file);
+        readAndAdaptYaml(file, yamlSettings);
         startEmbeddedCassandra(file, tmpDir, timeout);
     }
 
@@ -124,6 +152,7 @@ public class RestartableEmbeddedCassandraServerHelper {
         }
 
         checkConfigNameForRestart(file.getAbsolutePath());
+        launchedTmpDir = tmpDir;
 
         log.debug("Starting cassandra...");
         log.debug("Initialization needed");
@@ -186,6 +215,51 @@ public class RestartableEmbeddedCassandraServerHelper {
         cassandraDaemon.deactivate();
     }
 
+    /**
+     * Closes the session, then flushes all memtables and recycles the commit log so that
+     * the next start has nothing to replay.  The node serves no more requests afterwards.
+     */
+    public static synchronized void drainEmbeddedCassandra() throws IOException, InterruptedException, ExecutionException {
+        if (cassandraDaemon == null || StorageService.instance.isDrained() || StorageService.instance.isDraining()) {
+            return;
+        }
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        if (cluster != null) {
+            cluster.close();
+            cluster = null;
+        }
+        StorageService.instance.drain();
+    }
+
+    /**
+     * Closes the session and stops the node from draining when the JVM exits, for when its
+     * data is about to be deleted anyway.
+     */
+    public static synchronized void abandonEmbeddedCassandra() {
+        if (cassandraDaemon == null) {
+            return;
+        }
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        if (cluster != null) {
+            cluster.close();
+            cluster = null;
+        }
+        StorageService.instance.removeShutdownHook();
+    }
+
+    /**
+     * The directory the embedded cassandra was started in (holding the copied yaml), or the default.
+     */
+    public static String getTmpDir() {
+        return launchedTmpDir;
+    }
+
     /**
      * drop all keyspaces (expect system)
      */
@@ -272,6 +346,140 @@ public class RestartableEmbeddedCassandraServerHelper {
         return DatabaseDescriptor.getNativeTransportPort();
     }
 
+    /**
+     * Moves the sstables written to the staging directories into the data
+     * directory of keyspace.table and loads them into the running table,
+     * bypassing the commit log and memtables.
+     *
+     * @param keyspace internal (unquoted) keyspace name
+     * @param table internal (unquoted) table name
+     * @param stagingDirs directories holding complete sstables for the table
+     * @return the number of sstables loaded
+     */
+    public static synchronized int importSSTables(String keyspace, String table, List<File> stagingDirs) {
+        return importSSTables(keyspace, table, stagingDirs, false);
+    }
+
+    /**
+     * As {@link #importSSTables(String, String, List)}, but if link is true the sstables are
+     * hard-linked into the data directory and the originals are left in place.
+     */
+    public static synchronized int importSSTables(String keyspace, String table, List<File> stagingDirs, boolean link) {
+        ColumnFamilyStore cfs = ColumnFamilyStore.getIfExists(keyspace, table);
+        if (cfs == null) {
+            throw new IllegalArgumentException("Unknown table " + keyspace + "." + table);
+        }
+        File dataDir = cfs.getDirectories().getDirectoryForNewSSTables();
+        int staged = 0;
+        for (File stagingDir : stagingDirs) {
+            File[] dataFiles = stagingDir.listFiles((dir, name) -> name.endsWith("-" + Component.DATA.name));
+            if (dataFiles == null) {
+                continue;
+            }
+            for (File dataFile : dataFiles) {
+                Descriptor from = Descriptor.fromFilename(stagingDir, dataFile.getName()).left;
+                Descriptor to = new Descriptor(from.version, dataDir, keyspace, table,
+                        STAGED_GENERATION_BASE + staged, from.formatType, from.digestComponent);
+                if (link) {
+                    for (Component component : SSTable.componentsFor(from)) {
+                        File linkFile = new File(to.filenameFor(component));
+                        try {
+                            linkOrCopy(linkFile.toPath(), Paths.get(from.filenameFor(component)));
+                        } catch (IOException e) {
+                            throw new FSWriteError(e, linkFile);
+                        }
+                    }
+                } else {
+                    SSTableWriter.rename(from, to, SSTable.componentsFor(from));
+                }
+                staged++;
+            }
+        }
+        // renames the staged sstables to fresh generations and opens them
+        cfs.loadNewSSTables();
+        return staged;
+    }
+
+    /**
+     * Snapshots every keyspace (which flushes the memtables first) and moves the snapshot
+     * of each table to target/&lt;keyspace&gt;/&lt;table directory&gt;.  The snapshot files are
+     * hard links, so this takes no extra space or copying.
+     *
+     * @return the number of tables captured
+     */
+    public static synchronized int snapshotTo(File target) throws IOException {
+        String tag = "cqlish-" + System.currentTimeMillis();
+        StorageService.instance.takeSnapshot(tag);
+        int tables = 0;
+        for (String location : DatabaseDescriptor.getAllDataFileLocations()) {
+            File[] keyspaceDirs = new File(location).listFiles(File::isDirectory);
+            if (keyspaceDirs == null) {
+                continue;
+            }
+            for (File keyspaceDir : keyspaceDirs) {
+                File[] tableDirs = keyspaceDir.listFiles(File::isDirectory);
+                if (tableDirs == null) {
+                    continue;
+                }
+                for (File tableDir : tableDirs) {
+                    File snapshotsDir = new File(tableDir, Directories.SNAPSHOT_SUBDIR);
+                    File snapshot = new File(snapshotsDir, tag);
+                    if (!snapshot.isDirectory()) {
+                        continue;
+                    }
+                    File to = new File(new File(target, keyspaceDir.getName()), tableDir.getName());
+                    mkdir(to.getParent());
+                    try {
+                        Files.move(snapshot.toPath(), to.toPath());
+                    } catch (IOException e) {
+                        // a different file system; copy it instead
+                        linkTree(snapshot, to);
+                        deleteRecursive(snapshot);
+                    }
+                    snapshotsDir.delete(); // only if empty
+                    tables++;
+                }
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Recreates the directory tree under source at target, hard-linking every file, or
+     * copying it where source and target are on different file systems.
+     *
+     * @return the number of files linked
+     */
+    public static int linkTree(File source, File target) throws IOException {
+        Path from = source.toPath();
+        Path to = target.toPath();
+        int[] linked = {0};
+        Files.walkFileTree(from, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(to.resolve(from.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                linkOrCopy(to.resolve(from.relativize(file)), file);
+                linked[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return linked[0];
+    }
+
+    private static void linkOrCopy(Path link, Path existing) throws IOException {
+        try {
+            Files.createLink(link, existing);
+        } catch (FileSystemException e) {
+            // most likely a link across file systems
+            Files.copy(existing, link);
+        }
+    }
+
     private static void cleanDataWithNativeDriver(String keyspace, String... excludedTables) {
         HashSet<String> excludedTableList = new HashSet<>(Arrays.asList(excludedTables));
         cluster.getMetadata().getKeyspace(keyspace).getTables().stream()
@@ -315,6 +523,44 @@ public class RestartableEmbeddedCassandraServerHelper {
         deleteRecursive(new File(dir));
     }
 
+    /**
+     * Renames dir aside, so that it is gone at once, and deletes it in the background
+     * along with anything left aside by earlier calls.
+     */
+    public static void rmdirAsync(String dir) {
+        File dirFile = new File(dir);
+        if (dirFile.exists()) {
+            File aside = new File(dirFile.getPath() + ASIDE_SUFFIX + System.currentTimeMillis());
+            if (!dirFile.renameTo(aside)) {
+                throw new FSWriteError(new IOException("Failed to rename " + dir + " to " + aside), dir);
+            }
+        }
+        deleteAsideAsync(dir);
+    }
+
+    /**
+     * Deletes, in the background, any copies of dir left aside by {@link #rmdirAsync(String)}.
+     */
+    public static void deleteAsideAsync(String dir) {
+        File dirFile = new File(dir).getAbsoluteFile();
+        String prefix = dirFile.getName() + ASIDE_SUFFIX;
+        File[] aside = dirFile.getParentFile().listFiles((parent, name) -> name.startsWith(prefix));
+        if (aside == null || aside.length == 0) {
+            return;
+        }
+        Thread deleter = new Thread(() -> {
+            for (File old : aside) {
+                try {
+                    deleteRecursive(old);
+                } catch (FSWriteError e) {
+                    log.warn("Could not delete " + old + ": " + e.getMessage());
+                }
+            }
+        }, "rmdir-async");
+        deleter.setDaemon(true);
+        deleter.start();
+    }
+
     /**
      * Copies a resource from within the jar to a directory.
      *
@@ -374,7 +620,7 @@ public class RestartableEmbeddedCassandraServerHelper {
         DatabaseDescriptor.createAllDirectories();
     }
 
-    private static void readAndAdaptYaml(File cassandraConfig) throws IOException {
+    private static void readAndAdaptYaml(File cassandraConfig, Map<String, String> settings) throws IOException {
         String yaml = readYamlFileToString(cassandraConfig);
 
         // read the ports and replace them if zero. dump back the changed string, preserving comments (thus no snakeyaml)
@@ -397,6 +643,23 @@ public class RestartableEmbeddedCassandraServerHelper {
         }
         portMatcher.appendTail(sb);
 
+        // replace each setting (and the items of a block list value) where it is, or is commented out,
+        // else add it at the end
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            Matcher settingMatcher = Pattern.compile("^#?[ \\t]*" + Pattern.quote(setting.getKey()) + ":[^\\n]*(?:\\n[ \\t]+-[^\\n]*)*",
+                    Pattern.MULTILINE).matcher(sb);
+            String line = setting.getKey() + ": " + setting.getValue();
+            if (settingMatcher.find()) {
+                sb.replace(settingMatcher.start(), settingMatcher.end(), line);
+            } else {
+                if (sb.length() > 0 && sb.charAt(sb.length() - 1) != '\n') {
+                    sb.append(System.lineSeparator());
+                }
+                sb.append(line).append(System.lineSeparator());
+            }
+            replaced = true;
+        }
+
         if (replaced) {
             writeStringToYamlFile(cassandraConfig, sb.toString());
         }
@@ -5,8 +5,31 @@ java=java
 if test -n "$JAVA_HOME"; then
     java="$JAVA_HOME/bin/java"
 fi
+# the heap follows -profile (see NodeProfile.java, which sizes everything else)
+profile=
+prev=
+for arg in "$@"; do
+    [ "$prev" = "-profile" ] && profile="$arg"
+    prev="$arg"
+done
+if [ "$profile" = "auto" ]; then
+    ram_mb=$(awk '/^MemTotal:/ {print int($2 / 1024)}' /proc/meminfo 2>/dev/null)
+    cores=$(nproc 2>/dev/null || echo 4)
+    if [ -n "$ram_mb" -a "${ram_mb:-0}" -lt 6144 ] || [ "$cores" -le 2 ]; then
+        profile=tiny
+    elif [ "${ram_mb:-0}" -ge 32768 -a "$cores" -ge 8 ]; then
+        profile=large
+    else
+        profile=default
+    fi
+fi
+case "$profile" in
+    tiny)  heap=512M ;;
+    large) heap=8G ;;
+    *)     heap=4G ;;
+esac
 #mkdir -p target/sigar
 #unzip -j -n -d target/sigar $MYSELF "libs/*" > /dev/null 2>&1
 #exec "$java" -Djava.library.path=target/sigar -Dcassandra.jmx.local.port=7199 -XX:+UseG1GC -Xmx4G -Xms4G -XX:+UseTLAB -XX:+ResizeTLAB $java_args -jar $MYSELF "$@"
-exec "$java" -XX:+UseG1GC -Xmx4G -Xms4G -XX:+UseTLAB -XX:+ResizeTLAB $java_args -jar $MYSELF "$@"
+exec "$java" -XX:+UseG1GC -Xmx$heap -Xms$heap -XX:+UseTLAB -XX:+ResizeTLAB $java_args -jar $MYSELF "$@"
 exit 1